@@ -0,0 +1,26 @@
+package io.descoped.lds.core.persistence.test;
+
+import io.descoped.lds.api.persistence.Transaction;
+import io.descoped.lds.api.persistence.reactivex.Range;
+import io.reactivex.Flowable;
+
+import java.time.ZonedDateTime;
+import java.util.List;
+
+/**
+ * Optional provider capability for reading the state of an entity at many points in time, e.g. every month-end of
+ * a reporting period, with one pass over the version history instead of one {@code readDocuments} scan per
+ * snapshot.
+ */
+public interface BatchSnapshotPersistence {
+
+    /**
+     * Reads, for every snapshot, the documents that {@code readDocuments(tx, snapshot, namespace, entityName, range)}
+     * would return, paired with the snapshot they were read at. Documents are ordered by id as
+     * {@code readDocuments} orders them, and the versions of an id by snapshot, so each id is visited once.
+     *
+     * @param snapshots sorted ascending, without duplicates
+     * @throws IllegalArgumentException if the snapshots are not sorted ascending or contain duplicates
+     */
+    Flowable<SnapshotDocument> readDocumentsAt(Transaction tx, List<ZonedDateTime> snapshots, String namespace, String entityName, Range<String> range);
+}
@@ -0,0 +1,194 @@
+package io.descoped.lds.core.persistence.test;
+
+import io.descoped.lds.api.json.JsonNavigationPath;
+import io.descoped.lds.api.persistence.PersistenceDeletePolicy;
+import io.descoped.lds.api.persistence.PersistenceException;
+import io.descoped.lds.api.persistence.Transaction;
+import io.descoped.lds.api.persistence.TransactionFactory;
+import io.descoped.lds.api.persistence.json.JsonDocument;
+import io.descoped.lds.api.persistence.reactivex.Range;
+import io.descoped.lds.api.persistence.reactivex.RxJsonPersistence;
+import io.descoped.lds.api.specification.Specification;
+import io.reactivex.Completable;
+import io.reactivex.Flowable;
+import io.reactivex.Maybe;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.schedulers.Schedulers;
+
+import java.time.ZonedDateTime;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the operations of a provider backed by a blocking driver, such as JDBC or Bolt, on a dedicated
+ * {@link Scheduler}. Both assembly and subscription of every operation happen on the scheduler, so callers are
+ * never blocked by the driver.
+ * <p>
+ * With {@link #virtualThreads(RxJsonPersistence)} every operation gets its own virtual thread, which lets the number
+ * of concurrent blocking calls grow without growing a platform thread pool. Virtual threads require Java 21 at
+ * runtime; the adapter itself compiles for the Java version of this module.
+ */
+public class BlockingPersistenceAdapter implements RxJsonPersistence {
+
+    private final RxJsonPersistence delegate;
+    private final Scheduler scheduler;
+    private final ExecutorService ownedExecutor;
+
+    public BlockingPersistenceAdapter(RxJsonPersistence delegate, Scheduler scheduler) {
+        this(delegate, scheduler, null);
+    }
+
+    private BlockingPersistenceAdapter(RxJsonPersistence delegate, Scheduler scheduler, ExecutorService ownedExecutor) {
+        this.delegate = delegate;
+        this.scheduler = scheduler;
+        this.ownedExecutor = ownedExecutor;
+    }
+
+    /**
+     * Adapter that runs blocking work on the shared {@link Schedulers#io()} thread pool.
+     */
+    public static BlockingPersistenceAdapter ioThreads(RxJsonPersistence delegate) {
+        return new BlockingPersistenceAdapter(delegate, Schedulers.io());
+    }
+
+    /**
+     * Adapter that runs every operation on a new virtual thread.
+     *
+     * @throws UnsupportedOperationException if the runtime does not support virtual threads
+     */
+    public static BlockingPersistenceAdapter virtualThreads(RxJsonPersistence delegate) {
+        ExecutorService executor = newVirtualThreadPerTaskExecutor();
+        return new BlockingPersistenceAdapter(delegate, Schedulers.from(executor), executor);
+    }
+
+    public static boolean isVirtualThreadsSupported() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or later, running " + Runtime.version());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public RxJsonPersistence delegate() {
+        return delegate;
+    }
+
+    public Scheduler scheduler() {
+        return scheduler;
+    }
+
+    @Override
+    public TransactionFactory transactionFactory() throws PersistenceException {
+        return delegate.transactionFactory();
+    }
+
+    @Override
+    public Transaction createTransaction(boolean readOnly) throws PersistenceException {
+        return delegate.createTransaction(readOnly);
+    }
+
+    @Override
+    public Maybe<JsonDocument> readDocument(Transaction tx, ZonedDateTime snapshot, String ns, String entityName, String id) {
+        return Maybe.defer(() -> delegate.readDocument(tx, snapshot, ns, entityName, id)).subscribeOn(scheduler);
+    }
+
+    @Override
+    public Flowable<JsonDocument> readDocuments(Transaction tx, ZonedDateTime snapshot, String ns, String entityName, Range<String> range) {
+        return Flowable.defer(() -> delegate.readDocuments(tx, snapshot, ns, entityName, range)).subscribeOn(scheduler);
+    }
+
+    @Override
+    public Flowable<JsonDocument> readDocumentVersions(Transaction tx, String ns, String entityName, String id, Range<ZonedDateTime> range) {
+        return Flowable.defer(() -> delegate.readDocumentVersions(tx, ns, entityName, id, range)).subscribeOn(scheduler);
+    }
+
+    @Override
+    public Flowable<JsonDocument> readLinkedDocuments(Transaction tx, ZonedDateTime snapshot, String ns, String entityName, String id,
+                                                      JsonNavigationPath jsonNavigationPath, String targetEntityName, Range<String> range) {
+        return Flowable.defer(() -> delegate.readLinkedDocuments(tx, snapshot, ns, entityName, id, jsonNavigationPath, targetEntityName, range))
+                .subscribeOn(scheduler);
+    }
+
+    @Override
+    public Flowable<JsonDocument> readSourceDocuments(Transaction tx, ZonedDateTime snapshot, String ns, String targetEntityName, String targetId,
+                                                      JsonNavigationPath relationPath, String sourceEntityName, Range<String> range) {
+        return Flowable.defer(() -> delegate.readSourceDocuments(tx, snapshot, ns, targetEntityName, targetId, relationPath, sourceEntityName, range))
+                .subscribeOn(scheduler);
+    }
+
+    @Override
+    public Completable createOrOverwrite(Transaction tx, JsonDocument document, Specification specification) {
+        return Completable.defer(() -> delegate.createOrOverwrite(tx, document, specification)).subscribeOn(scheduler);
+    }
+
+    @Override
+    public Completable createOrOverwrite(Transaction tx, Flowable<JsonDocument> documentFlowable, Specification specification) {
+        return Completable.defer(() -> delegate.createOrOverwrite(tx, documentFlowable, specification)).subscribeOn(scheduler);
+    }
+
+    @Override
+    public Completable deleteDocument(Transaction tx, String ns, String entityName, String id, ZonedDateTime version, PersistenceDeletePolicy policy) {
+        return Completable.defer(() -> delegate.deleteDocument(tx, ns, entityName, id, version, policy)).subscribeOn(scheduler);
+    }
+
+    @Override
+    public Completable deleteAllDocumentVersions(Transaction tx, String ns, String entity, String id, PersistenceDeletePolicy policy) {
+        return Completable.defer(() -> delegate.deleteAllDocumentVersions(tx, ns, entity, id, policy)).subscribeOn(scheduler);
+    }
+
+    @Override
+    public Completable deleteAllEntities(Transaction tx, String namespace, String entity, Specification specification) {
+        return Completable.defer(() -> delegate.deleteAllEntities(tx, namespace, entity, specification)).subscribeOn(scheduler);
+    }
+
+    @Override
+    public Completable markDocumentDeleted(Transaction tx, String ns, String entityName, String id, ZonedDateTime version, PersistenceDeletePolicy policy) {
+        return Completable.defer(() -> delegate.markDocumentDeleted(tx, ns, entityName, id, version, policy)).subscribeOn(scheduler);
+    }
+
+    @Override
+    public Single<Boolean> hasPrevious(Transaction tx, ZonedDateTime snapshot, String ns, String entityName, String id) {
+        return Single.defer(() -> delegate.hasPrevious(tx, snapshot, ns, entityName, id)).subscribeOn(scheduler);
+    }
+
+    @Override
+    public Single<Boolean> hasNext(Transaction tx, ZonedDateTime snapshot, String ns, String entityName, String id) {
+        return Single.defer(() -> delegate.hasNext(tx, snapshot, ns, entityName, id)).subscribeOn(scheduler);
+    }
+
+    @Override
+    public Flowable<JsonDocument> findDocument(Transaction tx, ZonedDateTime snapshot, String namespace, String entityName,
+                                               JsonNavigationPath path, Object value, Range<String> range) {
+        return Flowable.defer(() -> delegate.findDocument(tx, snapshot, namespace, entityName, path, value, range)).subscribeOn(scheduler);
+    }
+
+    /**
+     * Releases the threads created by this adapter, leaving the delegate open.
+     */
+    public void shutdownScheduler() {
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+        }
+    }
+
+    @Override
+    public void close() throws PersistenceException {
+        try {
+            delegate.close();
+        } finally {
+            shutdownScheduler();
+        }
+    }
+}
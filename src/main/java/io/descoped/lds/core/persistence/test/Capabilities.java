@@ -0,0 +1,24 @@
+package io.descoped.lds.core.persistence.test;
+
+import io.descoped.lds.api.persistence.reactivex.RxJsonPersistence;
+import org.testng.SkipException;
+
+import static java.lang.String.format;
+
+/**
+ * Resolves optional provider capabilities. Tests that exercise a capability the provider does not implement are
+ * skipped rather than failed.
+ */
+final class Capabilities {
+
+    private Capabilities() {
+    }
+
+    static <T> T require(RxJsonPersistence persistence, Class<T> capability) {
+        if (!capability.isInstance(persistence)) {
+            throw new SkipException(format("Persistence provider %s does not implement %s",
+                    persistence.getClass().getName(), capability.getSimpleName()));
+        }
+        return capability.cast(persistence);
+    }
+}
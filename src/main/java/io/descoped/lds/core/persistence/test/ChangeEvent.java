@@ -0,0 +1,76 @@
+package io.descoped.lds.core.persistence.test;
+
+import io.descoped.lds.api.persistence.DocumentKey;
+import io.descoped.lds.api.persistence.json.JsonDocument;
+
+import java.util.Objects;
+
+/**
+ * A single write to a namespace as seen by the change feed of a {@link ChangeFeedPersistence}.
+ */
+public class ChangeEvent {
+
+    public enum Type {
+        /**
+         * A version was created or overwritten by {@code createOrOverwrite}.
+         */
+        VERSION_WRITTEN,
+        /**
+         * A delete marker was written by {@code markDocumentDeleted}.
+         */
+        DELETE_MARKER,
+        /**
+         * A single version or delete marker was removed by {@code deleteDocument}.
+         */
+        VERSION_DELETED,
+        /**
+         * All versions of a document were removed, either by {@code deleteAllDocumentVersions},
+         * {@code deleteAllEntities} or as part of a cascading delete.
+         */
+        ALL_VERSIONS_DELETED
+    }
+
+    private final long sequence;
+    private final Type type;
+    private final DocumentKey key;
+    private final JsonDocument document;
+
+    /**
+     * @param sequence position of this event in the feed, usable as a cursor to resume after this event
+     * @param type     the kind of write
+     * @param key      the affected version. For {@link Type#ALL_VERSIONS_DELETED} the timestamp is when the versions
+     *                 were deleted.
+     * @param document the written document for {@link Type#VERSION_WRITTEN}, otherwise {@code null}
+     */
+    public ChangeEvent(long sequence, Type type, DocumentKey key, JsonDocument document) {
+        this.sequence = sequence;
+        this.type = Objects.requireNonNull(type);
+        this.key = Objects.requireNonNull(key);
+        this.document = document;
+    }
+
+    public long sequence() {
+        return sequence;
+    }
+
+    public Type type() {
+        return type;
+    }
+
+    public DocumentKey key() {
+        return key;
+    }
+
+    public JsonDocument document() {
+        return document;
+    }
+
+    @Override
+    public String toString() {
+        return "ChangeEvent{" +
+                "sequence=" + sequence +
+                ", type=" + type +
+                ", key=" + key +
+                '}';
+    }
+}
@@ -0,0 +1,31 @@
+package io.descoped.lds.core.persistence.test;
+
+import io.descoped.lds.api.persistence.Transaction;
+import io.reactivex.Flowable;
+import io.reactivex.Single;
+
+/**
+ * Optional provider capability that exposes every write to a namespace as an ordered, resumable stream of
+ * {@link ChangeEvent}s.
+ * <p>
+ * Sequences are positive and strictly increasing in the order the writes happened, so all events of a single
+ * document appear in the order they were written. A consumer resumes by passing the sequence of the last event it
+ * processed as cursor.
+ */
+public interface ChangeFeedPersistence {
+
+    /**
+     * Cursor that reads the feed from the first change.
+     */
+    long BEGINNING = 0;
+
+    /**
+     * All changes in the namespace with a sequence greater than the cursor.
+     */
+    Flowable<ChangeEvent> readChanges(Transaction tx, String namespace, long cursor);
+
+    /**
+     * The sequence of the latest change in the namespace, or {@link #BEGINNING} if there are none.
+     */
+    Single<Long> currentCursor(Transaction tx, String namespace);
+}
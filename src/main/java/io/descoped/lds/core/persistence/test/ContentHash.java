@@ -0,0 +1,77 @@
+package io.descoped.lds.core.persistence.test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.descoped.lds.api.persistence.json.JsonTools;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * SHA-256 of the canonical JSON form of a document: object properties sorted by name, no insignificant whitespace.
+ * Documents that differ only in property order have the same hash. Array order is significant, and numbers are
+ * hashed as written, so {@code 1} and {@code 1.0} differ.
+ */
+public final class ContentHash {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private ContentHash() {
+    }
+
+    public static byte[] canonicalJson(JsonNode document) {
+        try {
+            return JsonTools.mapper.writeValueAsBytes(canonical(document));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static byte[] sha256(JsonNode document) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(canonicalJson(document));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The hash as 64 lower case hex digits.
+     */
+    public static String hex(JsonNode document) {
+        byte[] hash = sha256(document);
+        char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[i * 2] = HEX[(hash[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX[hash[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    private static JsonNode canonical(JsonNode node) {
+        if (node.isObject()) {
+            List<String> names = new ArrayList<>();
+            Iterator<String> fieldNames = node.fieldNames();
+            fieldNames.forEachRemaining(names::add);
+            Collections.sort(names);
+            ObjectNode sorted = JsonTools.mapper.createObjectNode();
+            for (String name : names) {
+                sorted.set(name, canonical(node.get(name)));
+            }
+            return sorted;
+        }
+        if (node.isArray()) {
+            ArrayNode array = JsonTools.mapper.createArrayNode();
+            node.forEach(element -> array.add(canonical(element)));
+            return array;
+        }
+        return node;
+    }
+}
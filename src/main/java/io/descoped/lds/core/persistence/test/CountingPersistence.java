@@ -0,0 +1,35 @@
+package io.descoped.lds.core.persistence.test;
+
+import io.descoped.lds.api.json.JsonNavigationPath;
+import io.descoped.lds.api.persistence.Transaction;
+import io.reactivex.Single;
+
+import java.time.ZonedDateTime;
+
+/**
+ * Optional provider capability for counting and existence checks that do not read document content. Every count
+ * equals the number of documents returned by the corresponding streaming read with {@code Range.unbounded()}.
+ */
+public interface CountingPersistence {
+
+    /**
+     * Same count as {@code readDocuments(tx, snapshot, namespace, entityName, Range.unbounded())}.
+     */
+    Single<Long> countDocuments(Transaction tx, ZonedDateTime snapshot, String namespace, String entityName);
+
+    /**
+     * Same count as {@code readDocumentVersions(tx, namespace, entityName, id, Range.unbounded())}, delete markers
+     * included.
+     */
+    Single<Long> countDocumentVersions(Transaction tx, String namespace, String entityName, String id);
+
+    /**
+     * Same count as {@code findDocument(tx, snapshot, namespace, entityName, path, value, Range.unbounded())}.
+     */
+    Single<Long> countFindDocument(Transaction tx, ZonedDateTime snapshot, String namespace, String entityName, JsonNavigationPath path, Object value);
+
+    /**
+     * Whether {@code readDocument(tx, snapshot, namespace, entityName, id)} returns a document.
+     */
+    Single<Boolean> exists(Transaction tx, ZonedDateTime snapshot, String namespace, String entityName, String id);
+}
@@ -0,0 +1,23 @@
+package io.descoped.lds.core.persistence.test;
+
+import io.descoped.lds.api.persistence.Transaction;
+import io.descoped.lds.api.persistence.json.JsonDocument;
+import io.descoped.lds.api.persistence.reactivex.Range;
+import io.reactivex.Flowable;
+import io.reactivex.Maybe;
+
+/**
+ * Optional provider capability for reading the current state of documents from an index of latest versions,
+ * maintained by {@code createOrOverwrite}, {@code markDocumentDeleted}, {@code deleteDocument} and
+ * {@code deleteAllDocumentVersions}.
+ * <p>
+ * The current version of a document is the version with the latest timestamp, regardless of the order versions
+ * were written in. When that version is a delete marker the document has no current version. As long as no version
+ * is timestamped in the future, a current read gives the same result as a read at {@code ZonedDateTime.now()}.
+ */
+public interface CurrentVersionPersistence {
+
+    Maybe<JsonDocument> readCurrentDocument(Transaction tx, String namespace, String entityName, String id);
+
+    Flowable<JsonDocument> readCurrentDocuments(Transaction tx, String namespace, String entityName, Range<String> range);
+}
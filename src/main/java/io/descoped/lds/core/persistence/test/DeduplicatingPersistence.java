@@ -0,0 +1,24 @@
+package io.descoped.lds.core.persistence.test;
+
+import io.descoped.lds.api.persistence.Transaction;
+import io.descoped.lds.api.persistence.json.JsonDocument;
+import io.descoped.lds.api.specification.Specification;
+import io.reactivex.Single;
+
+/**
+ * Optional provider capability for writes that are skipped when they would not change any read.
+ * <p>
+ * A write is skipped when the {@link ContentHash} of the document equals the hash of the version in effect at the
+ * timestamp of the document, i.e. the latest version at or before it. When that latest version is a delete marker,
+ * or there is none, no version is in effect and the write always happens. A skipped write
+ * leaves no trace: {@code readDocumentVersions} does not list it and {@code readDocument} at its timestamp returns
+ * the earlier, identical version with its own timestamp. All other writes behave as
+ * {@code createOrOverwrite}, including overwrites of a version with the same timestamp.
+ */
+public interface DeduplicatingPersistence {
+
+    /**
+     * @return {@code true} if the document was written, {@code false} if the write was skipped
+     */
+    Single<Boolean> createIfChanged(Transaction tx, JsonDocument document, Specification specification);
+}
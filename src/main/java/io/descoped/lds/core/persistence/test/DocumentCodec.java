@@ -0,0 +1,16 @@
+package io.descoped.lds.core.persistence.test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Encoding used by a provider to store and transfer document content. Decoding an encoded document must give a
+ * tree that is equal to the original.
+ */
+public interface DocumentCodec {
+
+    String name();
+
+    byte[] encode(JsonNode document);
+
+    JsonNode decode(byte[] bytes);
+}
@@ -0,0 +1,21 @@
+package io.descoped.lds.core.persistence.test;
+
+import io.descoped.lds.api.persistence.Transaction;
+import io.reactivex.Maybe;
+
+import java.time.ZonedDateTime;
+
+/**
+ * Optional provider capability for providers that store documents with a configurable {@link DocumentCodec}
+ * instead of JSON text.
+ */
+public interface DocumentCodecPersistence {
+
+    DocumentCodec documentCodec();
+
+    /**
+     * The document version in effect at the snapshot exactly as stored, i.e. as encoded by {@link #documentCodec()}.
+     * Empty if there is no such version or it is a delete marker.
+     */
+    Maybe<byte[]> readStoredBytes(Transaction tx, ZonedDateTime snapshot, String namespace, String entityName, String id);
+}
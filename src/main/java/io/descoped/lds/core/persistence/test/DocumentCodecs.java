@@ -0,0 +1,76 @@
+package io.descoped.lds.core.persistence.test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import io.descoped.lds.api.persistence.json.JsonTools;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+/**
+ * The document codecs known by the test kit.
+ */
+public final class DocumentCodecs {
+
+    /**
+     * Plain UTF-8 JSON text, which is what providers store unless told otherwise.
+     */
+    public static final DocumentCodec JSON = new JacksonDocumentCodec("json", JsonTools.mapper);
+
+    /**
+     * Binary Smile encoding. Repeated property names and short string values are back-referenced, which pays off on
+     * documents with many array elements of the same shape.
+     */
+    public static final DocumentCodec SMILE = new JacksonDocumentCodec("smile", new ObjectMapper(new SmileFactory()
+            .enable(SmileGenerator.Feature.CHECK_SHARED_NAMES)
+            .enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES)));
+
+    private DocumentCodecs() {
+    }
+
+    public static List<DocumentCodec> all() {
+        return List.of(JSON, SMILE);
+    }
+
+    static class JacksonDocumentCodec implements DocumentCodec {
+
+        private final String name;
+        private final ObjectMapper mapper;
+
+        JacksonDocumentCodec(String name, ObjectMapper mapper) {
+            this.name = name;
+            this.mapper = mapper;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public byte[] encode(JsonNode document) {
+            try {
+                return mapper.writeValueAsBytes(document);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public JsonNode decode(byte[] bytes) {
+            try {
+                return mapper.readTree(bytes);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package io.descoped.lds.core.persistence.test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.descoped.lds.api.json.JsonNavigationPath;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * A composable filter over document values, used by {@link FilteringPersistence}. Providers translate the filter
+ * tree into their own query language by inspecting {@link #operator()}, {@link #path()}, {@link #value()} and
+ * {@link #operands()}; {@link #test(JsonNode)} is the reference semantics.
+ * <p>
+ * A comparison matches when any value found at the path matches, so a path through an array ({@code name[]})
+ * matches if any element does. Range comparisons only match numbers against numbers and strings against strings.
+ */
+public final class DocumentFilter {
+
+    public enum Operator {
+        EQ, LT, LTE, GT, GTE, PREFIX, AND, OR
+    }
+
+    private final Operator operator;
+    private final JsonNavigationPath path;
+    private final Object value;
+    private final List<DocumentFilter> operands;
+
+    private DocumentFilter(Operator operator, JsonNavigationPath path, Object value, List<DocumentFilter> operands) {
+        this.operator = operator;
+        this.path = path;
+        this.value = value;
+        this.operands = operands;
+    }
+
+    private static DocumentFilter comparison(Operator operator, JsonNavigationPath path, Object value) {
+        return new DocumentFilter(operator, Objects.requireNonNull(path), Objects.requireNonNull(value), List.of());
+    }
+
+    public static DocumentFilter eq(JsonNavigationPath path, Object value) {
+        return comparison(Operator.EQ, path, value);
+    }
+
+    public static DocumentFilter lt(JsonNavigationPath path, Object value) {
+        return comparison(Operator.LT, path, value);
+    }
+
+    public static DocumentFilter lte(JsonNavigationPath path, Object value) {
+        return comparison(Operator.LTE, path, value);
+    }
+
+    public static DocumentFilter gt(JsonNavigationPath path, Object value) {
+        return comparison(Operator.GT, path, value);
+    }
+
+    public static DocumentFilter gte(JsonNavigationPath path, Object value) {
+        return comparison(Operator.GTE, path, value);
+    }
+
+    /**
+     * Values greater than or equal to {@code from} and less than {@code to}.
+     */
+    public static DocumentFilter between(JsonNavigationPath path, Object from, Object to) {
+        return and(gte(path, from), lt(path, to));
+    }
+
+    public static DocumentFilter startsWith(JsonNavigationPath path, String prefix) {
+        return comparison(Operator.PREFIX, path, prefix);
+    }
+
+    public static DocumentFilter and(DocumentFilter... operands) {
+        return new DocumentFilter(Operator.AND, null, null, List.of(operands));
+    }
+
+    public static DocumentFilter or(DocumentFilter... operands) {
+        return new DocumentFilter(Operator.OR, null, null, List.of(operands));
+    }
+
+    public Operator operator() {
+        return operator;
+    }
+
+    /**
+     * The compared path, or {@code null} for {@link Operator#AND} and {@link Operator#OR}.
+     */
+    public JsonNavigationPath path() {
+        return path;
+    }
+
+    /**
+     * The compared value, or {@code null} for {@link Operator#AND} and {@link Operator#OR}.
+     */
+    public Object value() {
+        return value;
+    }
+
+    public List<DocumentFilter> operands() {
+        return operands;
+    }
+
+    public boolean test(JsonNode document) {
+        switch (operator) {
+            case AND:
+                return operands.stream().allMatch(operand -> operand.test(document));
+            case OR:
+                return operands.stream().anyMatch(operand -> operand.test(document));
+            default:
+                return JsonNavigation.values(document, path).stream().anyMatch(this::matches);
+        }
+    }
+
+    private boolean matches(JsonNode node) {
+        if (operator == Operator.PREFIX) {
+            return node.isTextual() && node.textValue().startsWith((String) value);
+        }
+        Integer comparison = compare(node);
+        if (comparison == null) {
+            return false;
+        }
+        switch (operator) {
+            case EQ:
+                return comparison == 0;
+            case LT:
+                return comparison < 0;
+            case LTE:
+                return comparison <= 0;
+            case GT:
+                return comparison > 0;
+            case GTE:
+                return comparison >= 0;
+            default:
+                throw new IllegalStateException("Not a comparison: " + operator);
+        }
+    }
+
+    private Integer compare(JsonNode node) {
+        if (node.isNumber() && value instanceof Number) {
+            return node.decimalValue().compareTo(new BigDecimal(value.toString()));
+        }
+        if (node.isTextual() && value instanceof String) {
+            return Integer.signum(node.textValue().compareTo((String) value));
+        }
+        if (node.isBoolean() && value instanceof Boolean) {
+            return node.booleanValue() == (Boolean) value ? 0 : null;
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        if (operator == Operator.AND || operator == Operator.OR) {
+            return operands.stream().map(DocumentFilter::toString).collect(Collectors.joining(" " + operator + " ", "(", ")"));
+        }
+        return path.serialize() + " " + operator + " " + value;
+    }
+}
@@ -0,0 +1,336 @@
+package io.descoped.lds.core.persistence.test;
+
+import io.descoped.lds.api.json.JsonNavigationPath;
+import io.descoped.lds.api.persistence.PersistenceDeletePolicy;
+import io.descoped.lds.api.persistence.PersistenceException;
+import io.descoped.lds.api.persistence.Transaction;
+import io.descoped.lds.api.persistence.TransactionFactory;
+import io.descoped.lds.api.persistence.TransactionStatistics;
+import io.descoped.lds.api.persistence.json.JsonDocument;
+import io.descoped.lds.api.persistence.reactivex.Range;
+import io.descoped.lds.api.persistence.reactivex.RxJsonPersistence;
+import io.descoped.lds.api.specification.Specification;
+import io.reactivex.Completable;
+import io.reactivex.Flowable;
+import io.reactivex.Maybe;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.schedulers.Schedulers;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Decorator that injects latency, failures, partial streams and slow writes into chosen operations of a provider.
+ * <p>
+ * Faults are deterministic: whether the n-th call of an operation is faulted depends only on the seed, the
+ * operation and n, not on how calls of different operations interleave. Delays are scheduled on the given
+ * {@link Scheduler}, which may be a test scheduler.
+ * <p>
+ * Transactions created through the decorator are wrapped, so that their commit can be delayed. Operations unwrap them
+ * before calling the provider, which casts transactions to its own type. Transactions created by the provider itself
+ * are accepted as well, but their commits are not delayed.
+ */
+public class FaultInjectingPersistence implements RxJsonPersistence {
+
+    public enum Operation {
+        READ_DOCUMENT, READ_DOCUMENTS, READ_DOCUMENT_VERSIONS, READ_LINKED_DOCUMENTS, READ_SOURCE_DOCUMENTS, FIND_DOCUMENT,
+        HAS_NEXT, HAS_PREVIOUS, CREATE_OR_OVERWRITE, DELETE_DOCUMENT, DELETE_ALL_DOCUMENT_VERSIONS, DELETE_ALL_ENTITIES,
+        MARK_DOCUMENT_DELETED
+    }
+
+    /**
+     * The error emitted by injected failures.
+     */
+    public static class InjectedFaultException extends RuntimeException {
+        public InjectedFaultException(String message) {
+            super(message);
+        }
+    }
+
+    private static class Faults {
+        volatile Duration latency = Duration.ZERO;
+        volatile double latencyProbability;
+        volatile double failureProbability;
+        volatile int failAfterItems = -1;
+        final AtomicLong calls = new AtomicLong();
+    }
+
+    private final RxJsonPersistence delegate;
+    private final long seed;
+    private final Scheduler scheduler;
+    private final Map<Operation, Faults> faults = new ConcurrentHashMap<>();
+    private volatile Duration commitDelay = Duration.ZERO;
+
+    public FaultInjectingPersistence(RxJsonPersistence delegate, long seed) {
+        this(delegate, seed, Schedulers.computation());
+    }
+
+    public FaultInjectingPersistence(RxJsonPersistence delegate, long seed, Scheduler scheduler) {
+        this.delegate = delegate;
+        this.seed = seed;
+        this.scheduler = scheduler;
+        for (Operation operation : Operation.values()) {
+            faults.put(operation, new Faults());
+        }
+    }
+
+    /**
+     * Delays the subscription of the operation with the given probability.
+     */
+    public FaultInjectingPersistence latency(Operation operation, Duration latency, double probability) {
+        Faults operationFaults = faults.get(operation);
+        operationFaults.latency = latency;
+        operationFaults.latencyProbability = probability;
+        return this;
+    }
+
+    /**
+     * Fails the operation with an {@link InjectedFaultException} instead of calling the provider, with the given
+     * probability.
+     */
+    public FaultInjectingPersistence failures(Operation operation, double probability) {
+        faults.get(operation).failureProbability = probability;
+        return this;
+    }
+
+    /**
+     * Fails every stream of the operation with an {@link InjectedFaultException} once it has delivered the given number
+     * of items. Streams with fewer items complete normally.
+     */
+    public FaultInjectingPersistence failAfter(Operation operation, int items) {
+        faults.get(operation).failAfterItems = items;
+        return this;
+    }
+
+    /**
+     * Delays the completion of every commit of a transaction created through the decorator, after the provider has
+     * committed it. Closing such a transaction waits for the delayed commit.
+     */
+    public FaultInjectingPersistence slowCommits(Duration delay) {
+        this.commitDelay = delay;
+        return this;
+    }
+
+    public RxJsonPersistence delegate() {
+        return delegate;
+    }
+
+    private class Fault {
+        final Operation operation;
+        final long call;
+        final boolean fail;
+        final Duration latency;
+
+        Fault(Operation operation) {
+            Faults operationFaults = faults.get(operation);
+            this.operation = operation;
+            this.call = operationFaults.calls.getAndIncrement();
+            SplittableRandom random = new SplittableRandom(seed ^ (operation.ordinal() * 0x9E3779B97F4A7C15L) ^ (call * 0xC2B2AE3D27D4EB4FL));
+            this.fail = random.nextDouble() < operationFaults.failureProbability;
+            this.latency = random.nextDouble() < operationFaults.latencyProbability ? operationFaults.latency : Duration.ZERO;
+        }
+
+        InjectedFaultException exception(String reason) {
+            return new InjectedFaultException(operation + " call " + call + ": " + reason);
+        }
+    }
+
+    private <T> Flowable<T> flowable(Operation operation, Supplier<Flowable<T>> source) {
+        return Flowable.defer(() -> {
+            Fault fault = new Fault(operation);
+            Flowable<T> flowable = fault.fail ? Flowable.error(fault.exception("injected failure")) : source.get();
+            int failAfterItems = faults.get(operation).failAfterItems;
+            if (!fault.fail && failAfterItems >= 0) {
+                AtomicLong delivered = new AtomicLong();
+                flowable = flowable.take(failAfterItems)
+                        .doOnNext(item -> delivered.incrementAndGet())
+                        .concatWith(Flowable.defer(() -> delivered.get() < failAfterItems ? Flowable.empty()
+                                : Flowable.error(fault.exception("injected failure after " + failAfterItems + " items"))));
+            }
+            return fault.latency.isZero() ? flowable : flowable.delaySubscription(fault.latency.toNanos(), TimeUnit.NANOSECONDS, scheduler);
+        });
+    }
+
+    private <T> Maybe<T> maybe(Operation operation, Supplier<Maybe<T>> source) {
+        return Maybe.defer(() -> {
+            Fault fault = new Fault(operation);
+            Maybe<T> maybe = fault.fail ? Maybe.error(fault.exception("injected failure")) : source.get();
+            return fault.latency.isZero() ? maybe : maybe.delaySubscription(fault.latency.toNanos(), TimeUnit.NANOSECONDS, scheduler);
+        });
+    }
+
+    private <T> Single<T> single(Operation operation, Supplier<Single<T>> source) {
+        return Single.defer(() -> {
+            Fault fault = new Fault(operation);
+            Single<T> single = fault.fail ? Single.error(fault.exception("injected failure")) : source.get();
+            return fault.latency.isZero() ? single : single.delaySubscription(fault.latency.toNanos(), TimeUnit.NANOSECONDS, scheduler);
+        });
+    }
+
+    private Completable write(Operation operation, Supplier<Completable> source) {
+        return Completable.defer(() -> {
+            Fault fault = new Fault(operation);
+            Completable completable = fault.fail ? Completable.error(fault.exception("injected failure")) : source.get();
+            return fault.latency.isZero() ? completable : Completable.timer(fault.latency.toNanos(), TimeUnit.NANOSECONDS, scheduler).andThen(completable);
+        });
+    }
+
+    private <T> CompletableFuture<T> delayed(CompletableFuture<T> completion) {
+        Duration delay = commitDelay;
+        if (delay.isZero()) {
+            return completion;
+        }
+        return completion.thenCompose(result -> {
+            CompletableFuture<T> future = new CompletableFuture<>();
+            scheduler.scheduleDirect(() -> future.complete(result), delay.toNanos(), TimeUnit.NANOSECONDS);
+            return future;
+        });
+    }
+
+    private static Transaction unwrap(Transaction tx) {
+        return tx instanceof FaultInjectingTransaction ? ((FaultInjectingTransaction) tx).delegate : tx;
+    }
+
+    @Override
+    public TransactionFactory transactionFactory() throws PersistenceException {
+        return new FaultInjectingTransactionFactory(delegate.transactionFactory());
+    }
+
+    @Override
+    public Transaction createTransaction(boolean readOnly) throws PersistenceException {
+        return new FaultInjectingTransaction(delegate.createTransaction(readOnly));
+    }
+
+    @Override
+    public Maybe<JsonDocument> readDocument(Transaction tx, ZonedDateTime snapshot, String ns, String entityName, String id) {
+        return maybe(Operation.READ_DOCUMENT, () -> delegate.readDocument(unwrap(tx), snapshot, ns, entityName, id));
+    }
+
+    @Override
+    public Flowable<JsonDocument> readDocuments(Transaction tx, ZonedDateTime snapshot, String ns, String entityName, Range<String> range) {
+        return flowable(Operation.READ_DOCUMENTS, () -> delegate.readDocuments(unwrap(tx), snapshot, ns, entityName, range));
+    }
+
+    @Override
+    public Flowable<JsonDocument> readDocumentVersions(Transaction tx, String ns, String entityName, String id, Range<ZonedDateTime> range) {
+        return flowable(Operation.READ_DOCUMENT_VERSIONS, () -> delegate.readDocumentVersions(unwrap(tx), ns, entityName, id, range));
+    }
+
+    @Override
+    public Flowable<JsonDocument> readLinkedDocuments(Transaction tx, ZonedDateTime snapshot, String ns, String entityName, String id,
+                                                      JsonNavigationPath jsonNavigationPath, String targetEntityName, Range<String> range) {
+        return flowable(Operation.READ_LINKED_DOCUMENTS, () -> delegate.readLinkedDocuments(unwrap(tx), snapshot, ns, entityName, id, jsonNavigationPath, targetEntityName, range));
+    }
+
+    @Override
+    public Flowable<JsonDocument> readSourceDocuments(Transaction tx, ZonedDateTime snapshot, String ns, String targetEntityName, String targetId,
+                                                      JsonNavigationPath relationPath, String sourceEntityName, Range<String> range) {
+        return flowable(Operation.READ_SOURCE_DOCUMENTS, () -> delegate.readSourceDocuments(unwrap(tx), snapshot, ns, targetEntityName, targetId, relationPath, sourceEntityName, range));
+    }
+
+    @Override
+    public Completable createOrOverwrite(Transaction tx, JsonDocument document, Specification specification) {
+        return write(Operation.CREATE_OR_OVERWRITE, () -> delegate.createOrOverwrite(unwrap(tx), document, specification));
+    }
+
+    @Override
+    public Completable createOrOverwrite(Transaction tx, Flowable<JsonDocument> documentFlowable, Specification specification) {
+        return write(Operation.CREATE_OR_OVERWRITE, () -> delegate.createOrOverwrite(unwrap(tx), documentFlowable, specification));
+    }
+
+    @Override
+    public Completable deleteDocument(Transaction tx, String ns, String entityName, String id, ZonedDateTime version, PersistenceDeletePolicy policy) {
+        return write(Operation.DELETE_DOCUMENT, () -> delegate.deleteDocument(unwrap(tx), ns, entityName, id, version, policy));
+    }
+
+    @Override
+    public Completable deleteAllDocumentVersions(Transaction tx, String ns, String entity, String id, PersistenceDeletePolicy policy) {
+        return write(Operation.DELETE_ALL_DOCUMENT_VERSIONS, () -> delegate.deleteAllDocumentVersions(unwrap(tx), ns, entity, id, policy));
+    }
+
+    @Override
+    public Completable deleteAllEntities(Transaction tx, String namespace, String entity, Specification specification) {
+        return write(Operation.DELETE_ALL_ENTITIES, () -> delegate.deleteAllEntities(unwrap(tx), namespace, entity, specification));
+    }
+
+    @Override
+    public Completable markDocumentDeleted(Transaction tx, String ns, String entityName, String id, ZonedDateTime version, PersistenceDeletePolicy policy) {
+        return write(Operation.MARK_DOCUMENT_DELETED, () -> delegate.markDocumentDeleted(unwrap(tx), ns, entityName, id, version, policy));
+    }
+
+    @Override
+    public Single<Boolean> hasPrevious(Transaction tx, ZonedDateTime snapshot, String ns, String entityName, String id) {
+        return single(Operation.HAS_PREVIOUS, () -> delegate.hasPrevious(unwrap(tx), snapshot, ns, entityName, id));
+    }
+
+    @Override
+    public Single<Boolean> hasNext(Transaction tx, ZonedDateTime snapshot, String ns, String entityName, String id) {
+        return single(Operation.HAS_NEXT, () -> delegate.hasNext(unwrap(tx), snapshot, ns, entityName, id));
+    }
+
+    @Override
+    public Flowable<JsonDocument> findDocument(Transaction tx, ZonedDateTime snapshot, String namespace, String entityName,
+                                               JsonNavigationPath path, Object value, Range<String> range) {
+        return flowable(Operation.FIND_DOCUMENT, () -> delegate.findDocument(unwrap(tx), snapshot, namespace, entityName, path, value, range));
+    }
+
+    @Override
+    public void close() throws PersistenceException {
+        delegate.close();
+    }
+
+    private class FaultInjectingTransactionFactory implements TransactionFactory {
+        private final TransactionFactory delegate;
+
+        private FaultInjectingTransactionFactory(TransactionFactory delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public <T> CompletableFuture<T> runAsyncInIsolatedTransaction(Function<? super Transaction, ? extends T> retryable, boolean readOnly) {
+            return delayed(delegate.runAsyncInIsolatedTransaction(retryable, readOnly));
+        }
+
+        @Override
+        public Transaction createTransaction(boolean readOnly) throws PersistenceException {
+            return new FaultInjectingTransaction(delegate.createTransaction(readOnly));
+        }
+
+        @Override
+        public void close() {
+            delegate.close();
+        }
+    }
+
+    private class FaultInjectingTransaction implements Transaction {
+        private final Transaction delegate;
+
+        private FaultInjectingTransaction(Transaction delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public CompletableFuture<TransactionStatistics> commit() {
+            return delayed(delegate.commit());
+        }
+
+        @Override
+        public CompletableFuture<TransactionStatistics> cancel() {
+            return delegate.cancel();
+        }
+
+        @Override
+        public void close() {
+            commit().join();
+        }
+    }
+}
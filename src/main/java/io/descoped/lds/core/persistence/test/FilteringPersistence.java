@@ -0,0 +1,26 @@
+package io.descoped.lds.core.persistence.test;
+
+import io.descoped.lds.api.persistence.Transaction;
+import io.descoped.lds.api.persistence.json.JsonDocument;
+import io.descoped.lds.api.persistence.reactivex.Range;
+import io.reactivex.Flowable;
+
+import java.time.ZonedDateTime;
+
+/**
+ * Optional provider capability for finding documents with a {@link DocumentFilter}, the multi-predicate
+ * counterpart of {@code findDocument}.
+ */
+public interface FilteringPersistence {
+
+    /**
+     * The documents at the snapshot that match the filter, ordered by id and limited by the range like
+     * {@code readDocuments}.
+     */
+    Flowable<JsonDocument> findDocuments(Transaction tx, ZonedDateTime snapshot, String namespace, String entityName, DocumentFilter filter, Range<String> range);
+
+    /**
+     * Whether the provider answers the filter from indexes rather than by scanning the documents of the entity.
+     */
+    boolean isIndexBacked(String namespace, String entityName, DocumentFilter filter);
+}
@@ -0,0 +1,70 @@
+package io.descoped.lds.core.persistence.test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.descoped.lds.api.json.JsonNavigationPath;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Navigation of Jackson trees with {@link JsonNavigationPath}s.
+ */
+public final class JsonNavigation {
+
+    private JsonNavigation() {
+    }
+
+    /**
+     * The elements of the path after the leading {@code $}, e.g. {@code history} and {@code previousAddresses[]}
+     * for {@code $.history.previousAddresses[]}.
+     */
+    public static String[] elements(JsonNavigationPath path) {
+        String serialized = path.serialize();
+        if (!serialized.startsWith("$.")) {
+            throw new IllegalArgumentException("Path must start with '$.': " + serialized);
+        }
+        return serialized.substring(2).split("\\.");
+    }
+
+    /**
+     * Whether the path element descends into the elements of an array.
+     */
+    public static boolean isArray(String element) {
+        return element.endsWith("[]");
+    }
+
+    /**
+     * The property name of the path element, without any array suffix.
+     */
+    public static String name(String element) {
+        return isArray(element) ? element.substring(0, element.length() - 2) : element;
+    }
+
+    /**
+     * Every value at the path. An array path element ({@code name[]}) gives one value per array element.
+     */
+    public static List<JsonNode> values(JsonNode document, JsonNavigationPath path) {
+        List<JsonNode> values = new ArrayList<>();
+        collect(document, elements(path), 0, values);
+        return values;
+    }
+
+    private static void collect(JsonNode node, String[] path, int index, List<JsonNode> values) {
+        if (index == path.length) {
+            values.add(node);
+            return;
+        }
+        String element = path[index];
+        JsonNode child = node.get(name(element));
+        if (child == null) {
+            return;
+        }
+        if (isArray(element)) {
+            if (child.isArray()) {
+                child.forEach(item -> collect(item, path, index + 1, values));
+            }
+        } else {
+            collect(child, path, index + 1, values);
+        }
+    }
+}
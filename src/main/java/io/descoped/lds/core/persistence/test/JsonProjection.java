@@ -0,0 +1,132 @@
+package io.descoped.lds.core.persistence.test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.descoped.lds.api.json.JsonNavigationPath;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static io.descoped.lds.api.persistence.json.JsonTools.mapper;
+
+/**
+ * Reference implementation of document projection, used to verify the results of {@link ProjectingPersistence}.
+ * <p>
+ * A projected document has the same structure as the original but only holds the values found at the projected
+ * paths. A path element {@code name[]} descends into every object element of an array and {@code *} matches every
+ * property of an object. Paths that are not present in the document are ignored: no objects or arrays are created
+ * for them. A projected array holds one object per object element of the original array, empty for elements without
+ * values at the projected paths, so that elements keep their positions; other elements are left out.
+ */
+public class JsonProjection {
+
+    private final List<String[]> paths = new ArrayList<>();
+
+    public JsonProjection(Set<JsonNavigationPath> projection) {
+        for (JsonNavigationPath path : projection) {
+            paths.add(JsonNavigation.elements(path));
+        }
+    }
+
+    public static JsonNode project(JsonNode document, Set<JsonNavigationPath> projection) {
+        return new JsonProjection(projection).apply(document);
+    }
+
+    public ObjectNode apply(JsonNode document) {
+        ObjectNode projected = mapper.createObjectNode();
+        for (String[] path : paths) {
+            ObjectNode values = project(document, path, 0);
+            if (values != null) {
+                merge(projected, values);
+            }
+        }
+        return projected;
+    }
+
+    /**
+     * @return the values of the object at the path, or {@code null} if there are none
+     */
+    private static ObjectNode project(JsonNode source, String[] path, int index) {
+        String element = path[index];
+        String name = JsonNavigation.name(element);
+        boolean last = index == path.length - 1;
+        Iterator<String> names = "*".equals(name) ? source.fieldNames() : List.of(name).iterator();
+        ObjectNode projected = null;
+        while (names.hasNext()) {
+            String fieldName = names.next();
+            JsonNode child = source.get(fieldName);
+            JsonNode value = null;
+            if (child == null) {
+                continue;
+            }
+            if (last) {
+                value = child.deepCopy();
+            } else if (JsonNavigation.isArray(element)) {
+                if (child.isArray()) {
+                    value = projectElements(child, path, index + 1);
+                }
+            } else if (child.isObject()) {
+                value = project(child, path, index + 1);
+            }
+            if (value != null) {
+                if (projected == null) {
+                    projected = mapper.createObjectNode();
+                }
+                projected.set(fieldName, value);
+            }
+        }
+        return projected;
+    }
+
+    private static ArrayNode projectElements(JsonNode source, String[] path, int index) {
+        ArrayNode projected = mapper.createArrayNode();
+        boolean found = false;
+        for (JsonNode element : source) {
+            if (!element.isObject()) {
+                continue;
+            }
+            ObjectNode values = project(element, path, index);
+            found |= values != null;
+            projected.add(values == null ? mapper.createObjectNode() : values);
+        }
+        return found ? projected : null;
+    }
+
+    /**
+     * Adds the values of another path to the projection. Arrays projected from the same array have the same size
+     * and are merged element by element; a copy of the whole array, projected by a path ending at it, is larger
+     * whenever the array has elements that are not objects.
+     */
+    private static void merge(ObjectNode target, ObjectNode source) {
+        Iterator<Map.Entry<String, JsonNode>> fields = source.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            JsonNode existing = target.get(field.getKey());
+            JsonNode value = field.getValue();
+            if (existing != null && existing.isObject() && value.isObject()) {
+                merge((ObjectNode) existing, (ObjectNode) value);
+            } else if (existing != null && existing.isArray() && value.isArray() && existing.size() == value.size()
+                    && isObjects(existing) && isObjects(value)) {
+                for (int i = 0; i < existing.size(); i++) {
+                    merge((ObjectNode) existing.get(i), (ObjectNode) value.get(i));
+                }
+            } else if (existing == null || !existing.isArray() || !value.isArray() || existing.size() < value.size()) {
+                // A larger array is a copy of the whole array, which holds every projected element.
+                target.set(field.getKey(), value);
+            }
+        }
+    }
+
+    private static boolean isObjects(JsonNode array) {
+        for (JsonNode element : array) {
+            if (!element.isObject()) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
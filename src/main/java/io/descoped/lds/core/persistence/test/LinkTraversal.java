@@ -0,0 +1,53 @@
+package io.descoped.lds.core.persistence.test;
+
+import io.descoped.lds.api.json.JsonNavigationPath;
+import io.descoped.lds.api.persistence.DocumentKey;
+import io.descoped.lds.api.persistence.Transaction;
+import io.descoped.lds.api.persistence.json.JsonDocument;
+import io.descoped.lds.api.persistence.reactivex.Range;
+import io.descoped.lds.api.persistence.reactivex.RxJsonPersistence;
+import io.descoped.lds.api.specification.Specification;
+import io.descoped.lds.api.specification.SpecificationElement;
+import io.descoped.lds.api.specification.SpecificationElementType;
+
+import java.time.ZonedDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reference implementation of {@link TraversingPersistence#traverseLinks}, built on one
+ * {@code readLinkedDocuments} call per hop, document and target entity.
+ */
+public final class LinkTraversal {
+
+    private LinkTraversal() {
+    }
+
+    public static List<JsonDocument> traverseLinks(RxJsonPersistence persistence, Transaction tx, ZonedDateTime snapshot, String namespace,
+                                                   String entityName, Set<String> ids, List<JsonNavigationPath> hops, Specification specification) {
+        Map<DocumentKey, JsonDocument> current = new LinkedHashMap<>();
+        for (String id : ids) {
+            JsonDocument document = persistence.readDocument(tx, snapshot, namespace, entityName, id).blockingGet();
+            if (document != null) {
+                current.put(document.key(), document);
+            }
+        }
+        for (JsonNavigationPath hop : hops) {
+            Map<DocumentKey, JsonDocument> next = new LinkedHashMap<>();
+            for (JsonDocument document : current.values()) {
+                SpecificationElement element = Specifications.element(specification, document.key().entity(), hop);
+                if (element == null || element.getSpecificationElementType() != SpecificationElementType.REF) {
+                    continue;
+                }
+                for (String targetEntity : element.getRefTypes()) {
+                    persistence.readLinkedDocuments(tx, snapshot, namespace, document.key().entity(), document.key().id(), hop, targetEntity, Range.unbounded())
+                            .blockingForEach(target -> next.put(target.key(), target));
+                }
+            }
+            current = next;
+        }
+        return List.copyOf(current.values());
+    }
+}
@@ -0,0 +1,11 @@
+package io.descoped.lds.core.persistence.test;
+
+/**
+ * Optional provider capability that exposes connection pool and transaction lifecycle metrics. When implemented,
+ * {@link PersistenceIntegrationTest} fails every test that leaves transactions, cursors, commits or connections
+ * open, and {@link PersistenceBenchmark} logs the metrics after each measurement.
+ */
+public interface MeasurablePersistence {
+
+    PersistenceMetrics metrics();
+}
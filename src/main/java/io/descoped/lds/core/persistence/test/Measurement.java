@@ -0,0 +1,59 @@
+package io.descoped.lds.core.persistence.test;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.String.format;
+
+/**
+ * Latency samples of a single benchmarked operation.
+ */
+public class Measurement {
+
+    private final String name;
+    private final long[] sortedNanos;
+
+    public Measurement(String name, long[] nanos) {
+        this.name = name;
+        this.sortedNanos = nanos.clone();
+        Arrays.sort(this.sortedNanos);
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public int samples() {
+        return sortedNanos.length;
+    }
+
+    public double meanNanos() {
+        return Arrays.stream(sortedNanos).average().orElse(0);
+    }
+
+    public long percentileNanos(double percentile) {
+        if (sortedNanos.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * sortedNanos.length) - 1;
+        return sortedNanos[Math.max(0, Math.min(index, sortedNanos.length - 1))];
+    }
+
+    public double opsPerSecond() {
+        double mean = meanNanos();
+        return mean == 0 ? 0 : TimeUnit.SECONDS.toNanos(1) / mean;
+    }
+
+    /**
+     * How many times faster this measurement is than the baseline, comparing mean latency.
+     */
+    public double speedupOver(Measurement baseline) {
+        return baseline.meanNanos() / meanNanos();
+    }
+
+    @Override
+    public String toString() {
+        return format("%s: samples=%d, mean=%.1f µs, p50=%.1f µs, p99=%.1f µs, %.1f ops/s",
+                name, samples(), meanNanos() / 1000.0, percentileNanos(50) / 1000.0, percentileNanos(99) / 1000.0, opsPerSecond());
+    }
+}
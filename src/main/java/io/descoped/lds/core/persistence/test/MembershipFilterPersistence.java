@@ -0,0 +1,27 @@
+package io.descoped.lds.core.persistence.test;
+
+import io.descoped.lds.api.json.JsonNavigationPath;
+
+/**
+ * Optional provider capability for in-memory membership filters per namespace and entity, e.g. Bloom or cuckoo
+ * filters, that let {@code readDocument} and {@code findDocument} answer misses without reading storage.
+ * <p>
+ * A filter may give false positives but never false negatives: a {@code false} answer means no version of any
+ * document, in any transaction, matches. Writes are added to the filters before {@code createOrOverwrite}
+ * completes, so they are covered even before they are committed. Deletes may, but need not, remove entries, and
+ * only once the delete is committed: until then the documents are still visible to other transactions, and a
+ * cancelled delete leaves them in place.
+ */
+public interface MembershipFilterPersistence {
+
+    /**
+     * Whether some version of the document might exist.
+     */
+    boolean mightContain(String namespace, String entityName, String id);
+
+    /**
+     * Whether some version of a document of the entity might have the value at the path, as matched by
+     * {@code findDocument}.
+     */
+    boolean mightMatch(String namespace, String entityName, JsonNavigationPath path, Object value);
+}
@@ -0,0 +1,201 @@
+package io.descoped.lds.core.persistence.test;
+
+import io.descoped.lds.api.persistence.DocumentKey;
+import io.descoped.lds.api.persistence.json.JsonDocument;
+import io.reactivex.Emitter;
+import io.reactivex.Flowable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The file format of {@link NamespaceExporter} and {@link NamespaceImporter}.
+ * <p>
+ * An archive is a header followed by independent chunks. Every chunk starts with a fixed sync marker, followed by
+ * its record count, the length and CRC32 of its payload and the deflated payload itself. A large archive is read by
+ * several readers by splitting it at arbitrary offsets: each reader reads the chunks whose sync marker starts inside
+ * its split, see {@link #readChunks(InputStream, String, long)}.
+ * <p>
+ * A record is one version or delete marker: entity, id, timestamp and the Smile encoded document, with no
+ * document for delete markers. Namespaces are not stored, so an archive can be imported into any namespace.
+ */
+public final class NamespaceArchive {
+
+    static final byte[] HEADER = {'L', 'D', 'S', 'N', 'S', 'A', 'R', '1'};
+
+    static final byte[] SYNC = {0x4c, 0x44, 0x53, 0x43, 0x48, 0x55, 0x4e, 0x4b, (byte) 0x9e, 0x27, 0x5b, (byte) 0xd1, 0x03, (byte) 0xa8, 0x6f, 0x12};
+
+    private NamespaceArchive() {
+    }
+
+    public static void writeHeader(OutputStream out) throws IOException {
+        out.write(HEADER);
+    }
+
+    public static void writeChunk(OutputStream out, List<JsonDocument> documents) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        try (DataOutputStream records = new DataOutputStream(new DeflaterOutputStream(payload))) {
+            for (JsonDocument document : documents) {
+                DocumentKey key = document.key();
+                records.writeUTF(key.entity());
+                records.writeUTF(key.id());
+                records.writeUTF(key.timestamp().toString());
+                // Delete markers have no content.
+                if (document.jackson() == null) {
+                    records.writeInt(-1);
+                } else {
+                    byte[] encoded = DocumentCodecs.SMILE.encode(document.jackson());
+                    records.writeInt(encoded.length);
+                    records.write(encoded);
+                }
+            }
+        }
+        byte[] bytes = payload.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        DataOutputStream chunk = new DataOutputStream(out);
+        chunk.write(SYNC);
+        chunk.writeInt(documents.size());
+        chunk.writeInt(bytes.length);
+        chunk.writeLong(crc.getValue());
+        chunk.write(bytes);
+        chunk.flush();
+    }
+
+    /**
+     * Reads the chunks of a whole archive as lists of documents in the given namespace. A corrupt chunk fails the
+     * flowable with an {@link IOException}.
+     */
+    public static Flowable<List<JsonDocument>> readChunks(InputStream in, String namespace) {
+        return Flowable.generate(() -> {
+            DataInputStream input = new DataInputStream(in);
+            byte[] header = new byte[HEADER.length];
+            input.readFully(header);
+            if (!Arrays.equals(header, HEADER)) {
+                throw new IOException("Not a namespace archive");
+            }
+            return input;
+        }, (input, emitter) -> {
+            if (!readSync(input)) {
+                emitter.onComplete();
+                return;
+            }
+            readChunk(input, namespace, emitter);
+        });
+    }
+
+    /**
+     * Reads the chunks of one split of an archive. The stream starts at the offset of the split, which may be
+     * anywhere in the archive, including its start. The chunks read are those whose sync marker starts within
+     * {@code splitLength} bytes of that offset; the last of them is read to its end, past the end of the split. Readers
+     * over adjacent splits that cover the archive thus read every chunk exactly once.
+     */
+    public static Flowable<List<JsonDocument>> readChunks(InputStream in, String namespace, long splitLength) {
+        return Flowable.generate(() -> new SplitReader(new DataInputStream(in)), (reader, emitter) -> {
+            long syncOffset = reader.skipToSync();
+            if (syncOffset < 0 || syncOffset >= splitLength) {
+                emitter.onComplete();
+                return;
+            }
+            reader.position += readChunk(reader.input, namespace, emitter);
+        });
+    }
+
+    /**
+     * Reads the rest of a chunk after its sync marker and emits its documents.
+     *
+     * @return the number of bytes read
+     */
+    private static long readChunk(DataInputStream input, String namespace, Emitter<List<JsonDocument>> emitter) throws IOException {
+        int count = input.readInt();
+        int length = input.readInt();
+        long checksum = input.readLong();
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        if (crc.getValue() != checksum) {
+            emitter.onError(new IOException("Checksum mismatch in chunk of " + count + " records"));
+            return 16L + length;
+        }
+        List<JsonDocument> documents = new ArrayList<>(count);
+        try (DataInputStream records = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(bytes)))) {
+            for (int i = 0; i < count; i++) {
+                String entity = records.readUTF();
+                String id = records.readUTF();
+                ZonedDateTime timestamp = ZonedDateTime.parse(records.readUTF());
+                int documentLength = records.readInt();
+                byte[] encoded = null;
+                if (documentLength >= 0) {
+                    encoded = new byte[documentLength];
+                    records.readFully(encoded);
+                }
+                documents.add(new JsonDocument(new DocumentKey(namespace, entity, id, timestamp),
+                        encoded == null ? null : DocumentCodecs.SMILE.decode(encoded)));
+            }
+        }
+        emitter.onNext(documents);
+        return 16L + length;
+    }
+
+    /**
+     * @return {@code false} at the end of the archive
+     */
+    private static boolean readSync(DataInputStream input) throws IOException {
+        byte[] sync = new byte[SYNC.length];
+        int read = input.readNBytes(sync, 0, sync.length);
+        if (read == 0) {
+            return false;
+        }
+        if (read < sync.length || !Arrays.equals(sync, SYNC)) {
+            throw new IOException("Missing chunk sync marker");
+        }
+        return true;
+    }
+
+    /**
+     * A stream positioned somewhere in an archive, with the number of bytes read from it.
+     */
+    private static class SplitReader {
+
+        private final DataInputStream input;
+        private long position;
+
+        private SplitReader(DataInputStream input) {
+            this.input = input;
+        }
+
+        /**
+         * @return the position of the start of the next sync marker, or -1 at the end of the stream
+         */
+        private long skipToSync() throws IOException {
+            int matched = 0;
+            while (matched < SYNC.length) {
+                int b = input.read();
+                if (b < 0) {
+                    return -1;
+                }
+                position++;
+                if ((byte) b == SYNC[matched]) {
+                    matched++;
+                } else {
+                    // The marker does not repeat its first byte, so a mismatch can only restart a match at this byte.
+                    matched = (byte) b == SYNC[0] ? 1 : 0;
+                }
+            }
+            return position - SYNC.length;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package io.descoped.lds.core.persistence.test;
+
+import io.descoped.lds.api.persistence.Transaction;
+import io.descoped.lds.api.persistence.reactivex.Range;
+import io.descoped.lds.api.persistence.reactivex.RxJsonPersistence;
+import io.reactivex.Flowable;
+import io.reactivex.Single;
+
+import java.io.OutputStream;
+
+/**
+ * Writes every version and delete marker of a namespace to a {@link NamespaceArchive}.
+ * <p>
+ * Documents are found through the change feed, which also lists documents whose latest version is a delete marker,
+ * so the provider must implement {@link ChangeFeedPersistence}.
+ */
+public class NamespaceExporter {
+
+    private final RxJsonPersistence persistence;
+    private int chunkSize = 1000;
+
+    public NamespaceExporter(RxJsonPersistence persistence) {
+        if (!(persistence instanceof ChangeFeedPersistence)) {
+            throw new IllegalArgumentException("Persistence provider does not implement ChangeFeedPersistence: " + persistence.getClass().getName());
+        }
+        this.persistence = persistence;
+    }
+
+    /**
+     * Maximum number of versions and delete markers per chunk.
+     */
+    public NamespaceExporter chunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    /**
+     * @return the number of versions and delete markers written
+     */
+    public Single<Long> export(String namespace, OutputStream out) {
+        return Single.using(
+                () -> persistence.createTransaction(true),
+                tx -> {
+                    NamespaceArchive.writeHeader(out);
+                    return documents(tx, namespace)
+                            .concatMap(document -> persistence.readDocumentVersions(tx, namespace, document.entity, document.id, Range.unbounded()))
+                            .buffer(chunkSize)
+                            .doOnNext(chunk -> NamespaceArchive.writeChunk(out, chunk))
+                            .reduce(0L, (count, chunk) -> count + chunk.size());
+                },
+                Transaction::close
+        );
+    }
+
+    private Flowable<EntityId> documents(Transaction tx, String namespace) {
+        return ((ChangeFeedPersistence) persistence).readChanges(tx, namespace, ChangeFeedPersistence.BEGINNING)
+                .map(change -> new EntityId(change.key().entity(), change.key().id()))
+                .distinct();
+    }
+
+    private static class EntityId {
+        private final String entity;
+        private final String id;
+
+        private EntityId(String entity, String id) {
+            this.entity = entity;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            EntityId other = (EntityId) o;
+            return entity.equals(other.entity) && id.equals(other.id);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * entity.hashCode() + id.hashCode();
+        }
+    }
+}
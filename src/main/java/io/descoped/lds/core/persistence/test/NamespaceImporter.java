@@ -0,0 +1,113 @@
+package io.descoped.lds.core.persistence.test;
+
+import io.descoped.lds.api.persistence.DocumentKey;
+import io.descoped.lds.api.persistence.PersistenceDeletePolicy;
+import io.descoped.lds.api.persistence.Transaction;
+import io.descoped.lds.api.persistence.json.JsonDocument;
+import io.descoped.lds.api.persistence.reactivex.RxJsonPersistence;
+import io.descoped.lds.api.specification.Specification;
+import io.reactivex.Completable;
+import io.reactivex.Flowable;
+import io.reactivex.Single;
+import io.reactivex.schedulers.Schedulers;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Loads a {@link NamespaceArchive} into a namespace. The versions of every chunk are written with one
+ * {@code createOrOverwrite(tx, Flowable, specification)} call in a transaction of their own, with several chunks
+ * in flight at once.
+ * <p>
+ * Delete markers are written once all versions are in place, so they never precede the versions they hide. Only
+ * their keys are kept until then. They are written in timestamp order, a batch of {@link #markerBatchSize(int)}
+ * per transaction, with {@link PersistenceDeletePolicy#FAIL_IF_INCOMING_LINKS}. By then the namespace also holds
+ * versions written after a marker in the source, e.g. a later version linking to the document behind it. A provider
+ * that counts such links rejects the marker and the import fails, rather than deleting imported documents.
+ */
+public class NamespaceImporter {
+
+    private final RxJsonPersistence persistence;
+    private final Specification specification;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private int markerBatchSize = 1000;
+
+    public NamespaceImporter(RxJsonPersistence persistence, Specification specification) {
+        this.persistence = persistence;
+        this.specification = specification;
+    }
+
+    /**
+     * Maximum number of chunks written concurrently.
+     */
+    public NamespaceImporter parallelism(int parallelism) {
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Maximum number of delete markers written per transaction.
+     */
+    public NamespaceImporter markerBatchSize(int markerBatchSize) {
+        this.markerBatchSize = markerBatchSize;
+        return this;
+    }
+
+    /**
+     * @return the number of versions and delete markers written
+     */
+    public Single<Long> importInto(String namespace, InputStream in) {
+        return importChunks(NamespaceArchive.readChunks(in, namespace));
+    }
+
+    /**
+     * Imports chunks already read from an archive, e.g. merged from the readers of the splits of an archive.
+     */
+    public Single<Long> importChunks(Flowable<List<JsonDocument>> chunks) {
+        return Single.defer(() -> {
+            List<DocumentKey> deleteMarkers = Collections.synchronizedList(new ArrayList<>());
+            return chunks
+                    .flatMapSingle(chunk -> {
+                        List<JsonDocument> versions = new ArrayList<>(chunk.size());
+                        for (JsonDocument document : chunk) {
+                            // Delete markers have no content.
+                            if (document.jackson() == null) {
+                                deleteMarkers.add(document.key());
+                            } else {
+                                versions.add(document);
+                            }
+                        }
+                        return write(versions).toSingleDefault((long) chunk.size()).subscribeOn(Schedulers.io());
+                    }, false, parallelism)
+                    .reduce(0L, Long::sum)
+                    .flatMap(count -> markDeleted(deleteMarkers).toSingleDefault(count));
+        });
+    }
+
+    private Completable write(List<JsonDocument> versions) {
+        if (versions.isEmpty()) {
+            return Completable.complete();
+        }
+        return Completable.using(
+                () -> persistence.createTransaction(false),
+                tx -> persistence.createOrOverwrite(tx, Flowable.fromIterable(versions), specification),
+                Transaction::close
+        );
+    }
+
+    private Completable markDeleted(List<DocumentKey> deleteMarkers) {
+        deleteMarkers.sort(Comparator.comparing(DocumentKey::timestamp));
+        return Flowable.fromIterable(deleteMarkers)
+                .buffer(markerBatchSize)
+                .concatMapCompletable(batch -> Completable.using(
+                        () -> persistence.createTransaction(false),
+                        tx -> Flowable.fromIterable(batch)
+                                .concatMapCompletable(marker -> persistence.markDocumentDeleted(tx, marker.namespace(), marker.entity(), marker.id(),
+                                        marker.timestamp(), PersistenceDeletePolicy.FAIL_IF_INCOMING_LINKS)),
+                        Transaction::close
+                ));
+    }
+}
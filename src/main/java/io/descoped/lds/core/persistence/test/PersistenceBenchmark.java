@@ -0,0 +1,1054 @@
+package io.descoped.lds.core.persistence.test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.descoped.lds.api.json.JsonNavigationPath;
+import io.descoped.lds.api.persistence.DocumentKey;
+import io.descoped.lds.api.persistence.PersistenceDeletePolicy;
+import io.descoped.lds.api.persistence.Transaction;
+import io.descoped.lds.api.persistence.json.JsonDocument;
+import io.descoped.lds.api.persistence.json.JsonTools;
+import io.descoped.lds.api.persistence.reactivex.Range;
+import io.descoped.lds.api.persistence.reactivex.RxJsonPersistence;
+import io.descoped.lds.api.specification.Specification;
+import io.reactivex.Flowable;
+import io.reactivex.Single;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.SkipException;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static io.descoped.lds.core.persistence.test.PersistenceIntegrationTest.createAddress;
+import static io.descoped.lds.core.persistence.test.PersistenceIntegrationTest.createBigString;
+import static io.descoped.lds.core.persistence.test.PersistenceIntegrationTest.createLargeString;
+import static io.descoped.lds.core.persistence.test.PersistenceIntegrationTest.createPerson;
+import static java.time.ZonedDateTime.parse;
+
+/**
+ * Opt-in benchmarks of persistence-provider operations. Providers extend this class the same way they extend
+ * {@link PersistenceIntegrationTest}. Results are logged; sizes are controlled with the system properties
+ * {@code lds.benchmark.warmup}, {@code lds.benchmark.iterations} and {@code lds.benchmark.documents}, the latter
+ * being the data set size of the scaling benchmarks, e.g. {@code -Dlds.benchmark.documents=1000000}.
+ */
+public abstract class PersistenceBenchmark {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PersistenceBenchmark.class);
+
+    protected final Specification specification;
+    protected final String namespace;
+    protected RxJsonPersistence persistence;
+
+    protected PersistenceBenchmark(String namespace) {
+        this.namespace = namespace;
+        this.specification = buildSpecification();
+    }
+
+    protected Specification buildSpecification() {
+        return PersistenceIntegrationTest.defaultSpecification();
+    }
+
+    /**
+     * Creates a new, cold provider instance for the startup benchmarks. Providers that do not override this skip
+     * them.
+     */
+    protected RxJsonPersistence createPersistence() {
+        throw new SkipException(getClass().getSimpleName() + " does not create cold provider instances");
+    }
+
+    /**
+     * Creates an isolated backend instance to be used as shard number {@code shard} in the sharding benchmarks.
+     * Providers that do not override this skip them.
+     */
+    protected RxJsonPersistence createShard(int shard) {
+        throw new SkipException(getClass().getSimpleName() + " does not create shard instances");
+    }
+
+    protected static int warmupIterations() {
+        return Integer.getInteger("lds.benchmark.warmup", 20);
+    }
+
+    protected static int iterations() {
+        return Integer.getInteger("lds.benchmark.iterations", 200);
+    }
+
+    protected Measurement measure(String name, Runnable operation) {
+        return measure(name, warmupIterations(), iterations(), operation);
+    }
+
+    protected Measurement measure(String name, int warmup, int iterations, Runnable operation) {
+        for (int i = 0; i < warmup; i++) {
+            operation.run();
+        }
+        long[] samples = new long[iterations];
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            operation.run();
+            samples[i] = System.nanoTime() - start;
+        }
+        Measurement measurement = new Measurement(name, samples);
+        LOG.info("{}", measurement);
+        if (persistence instanceof MeasurablePersistence) {
+            LOG.info("{}: {}", name, ((MeasurablePersistence) persistence).metrics().describe());
+        }
+        return measurement;
+    }
+
+    protected void report(Measurement baseline, Measurement candidate) {
+        LOG.info("{} vs {}: {}x", candidate.name(), baseline.name(), String.format("%.2f", candidate.speedupOver(baseline)));
+    }
+
+    protected JsonDocument toDocument(String namespace, String entity, String id, JsonNode json, ZonedDateTime timestamp) {
+        return new JsonDocument(new DocumentKey(namespace, entity, id, timestamp), json);
+    }
+
+    @Test(groups = "benchmark")
+    public void benchmarkRawReadOfBigDocument() {
+        RawJsonPersistence rawPersistence = Capabilities.require(persistence, RawJsonPersistence.class);
+        ZonedDateTime timestamp = parse("2018-10-07T19:49:26.307Z");
+        try (Transaction tx = persistence.createTransaction(false)) {
+            persistence.createOrOverwrite(tx, toDocument(namespace, "FunkyLongAddress", "bigvalue",
+                    createAddress(createBigString(), "NY", "USA"), timestamp), specification).blockingAwait();
+        }
+        try {
+            Measurement tree = measure("readDocument + serialize", () -> {
+                try (Transaction tx = persistence.createTransaction(true)) {
+                    JsonDocument document = persistence.readDocument(tx, timestamp, namespace, "FunkyLongAddress", "bigvalue").blockingGet();
+                    JsonTools.toJson(document.jackson()).getBytes(StandardCharsets.UTF_8);
+                }
+            });
+            Measurement raw = measure("readRawDocument", () -> {
+                try (Transaction tx = persistence.createTransaction(true)) {
+                    rawPersistence.readRawDocument(tx, timestamp, namespace, "FunkyLongAddress", "bigvalue").blockingGet().bytes();
+                }
+            });
+            report(tree, raw);
+        } finally {
+            try (Transaction tx = persistence.createTransaction(false)) {
+                persistence.deleteAllDocumentVersions(tx, namespace, "FunkyLongAddress", "bigvalue",
+                        PersistenceDeletePolicy.FAIL_IF_INCOMING_LINKS).blockingAwait();
+            }
+        }
+    }
+
+    @Test(groups = "benchmark")
+    public void benchmarkDocumentCodecs() {
+        for (Map.Entry<String, JsonNode> fixture : PersistenceIntegrationTest.codecFixtures().entrySet()) {
+            JsonNode document = fixture.getValue();
+            byte[] json = DocumentCodecs.JSON.encode(document);
+            Measurement jsonEncode = measure(fixture.getKey() + " encode json", () -> DocumentCodecs.JSON.encode(document));
+            Measurement jsonDecode = measure(fixture.getKey() + " decode json", () -> DocumentCodecs.JSON.decode(json));
+            for (DocumentCodec codec : DocumentCodecs.all()) {
+                if (codec == DocumentCodecs.JSON) {
+                    continue;
+                }
+                byte[] encoded = codec.encode(document);
+                LOG.info("{} {}: {} bytes vs {} json bytes ({}% smaller)", fixture.getKey(), codec.name(), encoded.length, json.length,
+                        String.format("%.1f", 100.0 * (json.length - encoded.length) / json.length));
+                report(jsonEncode, measure(fixture.getKey() + " encode " + codec.name(), () -> codec.encode(document)));
+                report(jsonDecode, measure(fixture.getKey() + " decode " + codec.name(), () -> codec.decode(encoded)));
+            }
+        }
+    }
+
+    @Test(groups = "benchmark")
+    public void benchmarkCurrentVersionRead() {
+        CurrentVersionPersistence currentPersistence = Capabilities.require(persistence, CurrentVersionPersistence.class);
+        int versions = Integer.getInteger("lds.benchmark.versions", 100);
+        ZonedDateTime timestamp = parse("2000-01-01T00:00:00.000Z");
+        try (Transaction tx = persistence.createTransaction(false)) {
+            persistence.deleteAllDocumentVersions(tx, namespace, "Person", "versioned", PersistenceDeletePolicy.FAIL_IF_INCOMING_LINKS).blockingAwait();
+            // Written newest first, so the latest version is not the last one inserted.
+            persistence.createOrOverwrite(tx, Flowable.range(0, versions)
+                    .map(i -> toDocument(namespace, "Person", "versioned", createPerson("John", "Smith " + i), timestamp.plusDays(versions - i))), specification)
+                    .blockingAwait();
+        }
+        try {
+            ZoneId utc = ZoneId.of("Etc/UTC");
+            Measurement temporal = measure("readDocument(now)", () -> {
+                try (Transaction tx = persistence.createTransaction(true)) {
+                    persistence.readDocument(tx, ZonedDateTime.now(utc), namespace, "Person", "versioned").blockingGet();
+                }
+            });
+            Measurement current = measure("readCurrentDocument", () -> {
+                try (Transaction tx = persistence.createTransaction(true)) {
+                    currentPersistence.readCurrentDocument(tx, namespace, "Person", "versioned").blockingGet();
+                }
+            });
+            report(temporal, current);
+        } finally {
+            try (Transaction tx = persistence.createTransaction(false)) {
+                persistence.deleteAllDocumentVersions(tx, namespace, "Person", "versioned", PersistenceDeletePolicy.FAIL_IF_INCOMING_LINKS).blockingAwait();
+            }
+        }
+    }
+
+    @Test(groups = "benchmark")
+    public void benchmarkChangeFeedThroughput() {
+        ChangeFeedPersistence changeFeed = Capabilities.require(persistence, ChangeFeedPersistence.class);
+        int documents = Integer.getInteger("lds.benchmark.documents", 10000);
+        ZonedDateTime timestamp = parse("2000-01-01T00:00:00.000Z");
+        long cursor;
+        try (Transaction tx = persistence.createTransaction(true)) {
+            cursor = changeFeed.currentCursor(tx, namespace).blockingGet();
+        }
+        try (Transaction tx = persistence.createTransaction(false)) {
+            persistence.deleteAllEntities(tx, namespace, "Person", specification).blockingAwait();
+            persistence.createOrOverwrite(tx, Flowable.range(0, documents)
+                    .map(i -> toDocument(namespace, "Person", String.format("person%07d", i), createPerson("John", "Smith"), timestamp)), specification)
+                    .blockingAwait();
+        }
+        try {
+            long[] events = new long[1];
+            Measurement drain = measure("readChanges of " + documents + " documents", 1, 5, () -> {
+                try (Transaction tx = persistence.createTransaction(true)) {
+                    events[0] = changeFeed.readChanges(tx, namespace, cursor).count().blockingGet();
+                }
+            });
+            LOG.info("change feed: {} events at {} events/s", events[0], String.format("%.0f", events[0] * drain.opsPerSecond()));
+            Measurement rescan = measure("readDocuments rescan of " + documents + " documents", 1, 5, () -> {
+                try (Transaction tx = persistence.createTransaction(true)) {
+                    persistence.readDocuments(tx, ZonedDateTime.now(ZoneId.of("Etc/UTC")), namespace, "Person", Range.unbounded()).count().blockingGet();
+                }
+            });
+            report(rescan, drain);
+        } finally {
+            try (Transaction tx = persistence.createTransaction(false)) {
+                persistence.deleteAllEntities(tx, namespace, "Person", specification).blockingAwait();
+            }
+        }
+    }
+
+    @Test(groups = "benchmark")
+    public void benchmarkCountVersusStream() {
+        CountingPersistence counting = Capabilities.require(persistence, CountingPersistence.class);
+        int documents = Integer.getInteger("lds.benchmark.documents", 10000);
+        ZonedDateTime timestamp = parse("2000-01-01T00:00:00.000Z");
+        try (Transaction tx = persistence.createTransaction(false)) {
+            persistence.deleteAllEntities(tx, namespace, "Person", specification).blockingAwait();
+            persistence.createOrOverwrite(tx, Flowable.range(0, documents)
+                    .map(i -> toDocument(namespace, "Person", String.format("person%07d", i), createPerson("John", i % 10 == 0 ? "Smith" : "Doe"), timestamp)), specification)
+                    .blockingAwait();
+        }
+        try {
+            JsonNavigationPath lastname = JsonNavigationPath.from("$.lastname");
+            Measurement streamed = measure("readDocuments count of " + documents, 1, 10, () -> {
+                try (Transaction tx = persistence.createTransaction(true)) {
+                    persistence.readDocuments(tx, timestamp, namespace, "Person", Range.unbounded()).count().blockingGet();
+                }
+            });
+            Measurement counted = measure("countDocuments of " + documents, 1, 10, () -> {
+                try (Transaction tx = persistence.createTransaction(true)) {
+                    counting.countDocuments(tx, timestamp, namespace, "Person").blockingGet();
+                }
+            });
+            report(streamed, counted);
+            Measurement streamedFind = measure("findDocument count of " + documents, 1, 10, () -> {
+                try (Transaction tx = persistence.createTransaction(true)) {
+                    persistence.findDocument(tx, timestamp, namespace, "Person", lastname, "Smith", Range.unbounded()).count().blockingGet();
+                }
+            });
+            Measurement countedFind = measure("countFindDocument of " + documents, 1, 10, () -> {
+                try (Transaction tx = persistence.createTransaction(true)) {
+                    counting.countFindDocument(tx, timestamp, namespace, "Person", lastname, "Smith").blockingGet();
+                }
+            });
+            report(streamedFind, countedFind);
+        } finally {
+            try (Transaction tx = persistence.createTransaction(false)) {
+                persistence.deleteAllEntities(tx, namespace, "Person", specification).blockingAwait();
+            }
+        }
+    }
+
+    @Test(groups = "benchmark")
+    public void benchmarkProjectedReads() {
+        ProjectingPersistence projecting = Capabilities.require(persistence, ProjectingPersistence.class);
+        int documents = Integer.getInteger("lds.benchmark.documents", 10000) / 100;
+        ZonedDateTime timestamp = parse("2000-01-01T00:00:00.000Z");
+        String bigString = createBigString();
+        try (Transaction tx = persistence.createTransaction(false)) {
+            persistence.deleteAllEntities(tx, namespace, "FunkyLongAddress", specification).blockingAwait();
+            persistence.createOrOverwrite(tx, Flowable.range(0, documents)
+                    .map(i -> toDocument(namespace, "FunkyLongAddress", String.format("address%07d", i), createAddress(bigString, "NY", "USA"), timestamp)), specification)
+                    .blockingAwait();
+        }
+        try {
+            Set<JsonNavigationPath> projection = Set.of(JsonNavigationPath.from("$.state"), JsonNavigationPath.from("$.country"));
+            long[] bytes = new long[2];
+            Measurement full = measure("readDocuments of " + documents + " big documents", 1, 10, () -> {
+                try (Transaction tx = persistence.createTransaction(true)) {
+                    bytes[0] = persistence.readDocuments(tx, timestamp, namespace, "FunkyLongAddress", Range.unbounded())
+                            .map(document -> (long) DocumentCodecs.JSON.encode(document.jackson()).length)
+                            .reduce(0L, Long::sum).blockingGet();
+                }
+            });
+            Measurement projected = measure("projected readDocuments of " + documents + " big documents", 1, 10, () -> {
+                try (Transaction tx = persistence.createTransaction(true)) {
+                    bytes[1] = projecting.readDocuments(tx, timestamp, namespace, "FunkyLongAddress", Range.unbounded(), projection)
+                            .map(document -> (long) DocumentCodecs.JSON.encode(document.jackson()).length)
+                            .reduce(0L, Long::sum).blockingGet();
+                }
+            });
+            LOG.info("projection {}: {} bytes vs {} bytes", projection, bytes[1], bytes[0]);
+            report(full, projected);
+        } finally {
+            try (Transaction tx = persistence.createTransaction(false)) {
+                persistence.deleteAllEntities(tx, namespace, "FunkyLongAddress", specification).blockingAwait();
+            }
+        }
+    }
+
+    @Test(groups = "benchmark")
+    public void benchmarkFilteredFindVersusIntersection() {
+        FilteringPersistence filtering = Capabilities.require(persistence, FilteringPersistence.class);
+        int documents = Integer.getInteger("lds.benchmark.documents", 10000);
+        ZonedDateTime timestamp = parse("2000-01-01T00:00:00.000Z");
+        try (Transaction tx = persistence.createTransaction(false)) {
+            persistence.deleteAllEntities(tx, namespace, "Person", specification).blockingAwait();
+            persistence.createOrOverwrite(tx, Flowable.range(0, documents)
+                    .map(i -> {
+                        ObjectNode person = createPerson("John", i % 10 == 0 ? "Smith" : "Doe");
+                        person.put("born", 1900 + i % 100);
+                        return toDocument(namespace, "Person", String.format("person%07d", i), person, timestamp);
+                    }), specification)
+                    .blockingAwait();
+        }
+        try {
+            JsonNavigationPath lastname = JsonNavigationPath.from("$.lastname");
+            JsonNavigationPath born = JsonNavigationPath.from("$.born");
+            Measurement intersected = measure("findDocument x2 + intersect", 1, 10, () -> {
+                try (Transaction tx = persistence.createTransaction(true)) {
+                    Set<String> smiths = persistence.findDocument(tx, timestamp, namespace, "Person", lastname, "Smith", Range.unbounded())
+                            .map(document -> document.key().id()).collect(HashSet<String>::new, Set::add).blockingGet();
+                    persistence.findDocument(tx, timestamp, namespace, "Person", born, 1950, Range.unbounded())
+                            .filter(document -> smiths.contains(document.key().id())).count().blockingGet();
+                }
+            });
+            DocumentFilter filter = DocumentFilter.and(DocumentFilter.eq(lastname, "Smith"), DocumentFilter.eq(born, 1950));
+            Measurement filtered = measure("findDocuments " + filter, 1, 10, () -> {
+                try (Transaction tx = persistence.createTransaction(true)) {
+                    filtering.findDocuments(tx, timestamp, namespace, "Person", filter, Range.unbounded()).count().blockingGet();
+                }
+            });
+            LOG.info("{} index backed: {}", filter, filtering.isIndexBacked(namespace, "Person", filter));
+            report(intersected, filtered);
+            DocumentFilter range = DocumentFilter.and(DocumentFilter.eq(lastname, "Smith"), DocumentFilter.between(born, 1950, 1960));
+            measure("findDocuments " + range, 1, 10, () -> {
+                try (Transaction tx = persistence.createTransaction(true)) {
+                    filtering.findDocuments(tx, timestamp, namespace, "Person", range, Range.unbounded()).count().blockingGet();
+                }
+            });
+            LOG.info("{} index backed: {}", range, filtering.isIndexBacked(namespace, "Person", range));
+        } finally {
+            try (Transaction tx = persistence.createTransaction(false)) {
+                persistence.deleteAllEntities(tx, namespace, "Person", specification).blockingAwait();
+            }
+        }
+    }
+
+    @Test(groups = "benchmark")
+    public void benchmarkTraverseLinksVersusPerDocumentLoop() {
+        TraversingPersistence traversing = Capabilities.require(persistence, TraversingPersistence.class);
+        int persons = Integer.getInteger("lds.benchmark.documents", 10000) / 10;
+        ZonedDateTime timestamp = parse("2000-01-01T00:00:00.000Z");
+        List<String> links = new ArrayList<>();
+        try (Transaction tx = persistence.createTransaction(false)) {
+            persistence.deleteAllEntities(tx, namespace, "Person", specification).blockingAwait();
+            persistence.deleteAllEntities(tx, namespace, "Address", specification).blockingAwait();
+            for (int i = 0; i < 100; i++) {
+                persistence.createOrOverwrite(tx, toDocument(namespace, "Address", "address" + i, createAddress("city " + i, "", "Country"), timestamp), specification).blockingAwait();
+                links.add("/Address/address" + i);
+            }
+            persistence.createOrOverwrite(tx, Flowable.range(0, persons)
+                    .map(i -> toDocument(namespace, "Person", String.format("person%07d", i), createPerson("John", "Smith",
+                            links.get(i % links.size()), links.get((i + 7) % links.size()), links.subList(i % 90, i % 90 + 5)), timestamp)), specification)
+                    .blockingAwait();
+        }
+        try {
+            Set<String> ids = IntStream.range(0, persons).mapToObj(i -> String.format("person%07d", i)).collect(Collectors.toSet());
+            List<JsonNavigationPath> hops = List.of(JsonNavigationPath.from("$.history.previousAddresses[]"));
+            Measurement loop = measure("readLinkedDocuments loop over " + persons + " persons", 1, 5, () -> {
+                try (Transaction tx = persistence.createTransaction(true)) {
+                    LinkTraversal.traverseLinks(persistence, tx, timestamp, namespace, "Person", ids, hops, specification);
+                }
+            });
+            Measurement traversal = measure("traverseLinks over " + persons + " persons", 1, 5, () -> {
+                try (Transaction tx = persistence.createTransaction(true)) {
+                    traversing.traverseLinks(tx, timestamp, namespace, "Person", ids, hops, specification).count().blockingGet();
+                }
+            });
+            report(loop, traversal);
+        } finally {
+            try (Transaction tx = persistence.createTransaction(false)) {
+                persistence.deleteAllEntities(tx, namespace, "Person", specification).blockingAwait();
+                persistence.deleteAllEntities(tx, namespace, "Address", specification).blockingAwait();
+            }
+        }
+    }
+
+    @Test(groups = "benchmark")
+    public void benchmarkVirtualThreadsVersusIoScheduler() {
+        if (!BlockingPersistenceAdapter.isVirtualThreadsSupported()) {
+            throw new SkipException("Virtual threads require Java 21 or later");
+        }
+        int documents = 100;
+        int operations = Integer.getInteger("lds.benchmark.operations", 10000);
+        int concurrency = Integer.getInteger("lds.benchmark.concurrency", 1000);
+        ZonedDateTime timestamp = parse("2000-01-01T00:00:00.000Z");
+        try (Transaction tx = persistence.createTransaction(false)) {
+            persistence.deleteAllEntities(tx, namespace, "Person", specification).blockingAwait();
+            persistence.createOrOverwrite(tx, Flowable.range(0, documents)
+                    .map(i -> toDocument(namespace, "Person", String.format("person%07d", i), createPerson("John", "Smith"), timestamp)), specification)
+                    .blockingAwait();
+        }
+        BlockingPersistenceAdapter io = BlockingPersistenceAdapter.ioThreads(persistence);
+        BlockingPersistenceAdapter virtual = BlockingPersistenceAdapter.virtualThreads(persistence);
+        try {
+            for (String operation : List.of("readDocument", "readDocuments")) {
+                Measurement ioMeasurement = measure(operation + " x" + operations + " on io threads, concurrency " + concurrency, 1, 3,
+                        () -> runConcurrently(io, operation, operations, concurrency, documents, timestamp));
+                Measurement virtualMeasurement = measure(operation + " x" + operations + " on virtual threads, concurrency " + concurrency, 1, 3,
+                        () -> runConcurrently(virtual, operation, operations, concurrency, documents, timestamp));
+                LOG.info("{}: {} ops/s on io threads, {} ops/s on virtual threads", operation,
+                        String.format("%.0f", operations * ioMeasurement.opsPerSecond()), String.format("%.0f", operations * virtualMeasurement.opsPerSecond()));
+                report(ioMeasurement, virtualMeasurement);
+            }
+        } finally {
+            virtual.shutdownScheduler();
+            try (Transaction tx = persistence.createTransaction(false)) {
+                persistence.deleteAllEntities(tx, namespace, "Person", specification).blockingAwait();
+            }
+        }
+    }
+
+    private void runConcurrently(BlockingPersistenceAdapter adapter, String operation, int operations, int concurrency, int documents, ZonedDateTime timestamp) {
+        Flowable.range(0, operations)
+                .flatMapSingle(i -> Single.using(
+                        () -> adapter.createTransaction(true),
+                        tx -> "readDocument".equals(operation)
+                                ? adapter.readDocument(tx, timestamp, namespace, "Person", String.format("person%07d", i % documents)).count()
+                                : adapter.readDocuments(tx, timestamp, namespace, "Person", Range.firstAfter(10, String.format("person%07d", i % documents))).count(),
+                        Transaction::close
+                ).subscribeOn(adapter.scheduler()), false, concurrency)
+                .blockingSubscribe();
+    }
+
+    @Test(groups = "benchmark")
+    public void benchmarkStartupAndWarmup() {
+        ZonedDateTime timestamp = parse("2000-01-01T00:00:00.000Z");
+        try (Transaction tx = persistence.createTransaction(false)) {
+            persistence.deleteAllEntities(tx, namespace, "Person", specification).blockingAwait();
+            persistence.createOrOverwrite(tx, Flowable.range(0, 100)
+                    .map(i -> toDocument(namespace, "Person", String.format("person%07d", i), createPerson("John", "Smith"), timestamp)), specification)
+                    .blockingAwait();
+        }
+        try {
+            for (boolean warmup : List.of(false, true)) {
+                String mode = warmup ? "warm start" : "cold start";
+                long start = System.nanoTime();
+                RxJsonPersistence cold = createPersistence();
+                try {
+                    long constructed = System.nanoTime();
+                    if (warmup) {
+                        Capabilities.require(cold, WarmablePersistence.class).warmup(namespace, specification).blockingAwait();
+                    }
+                    long warmedUp = System.nanoTime();
+                    long[] latencies = new long[Integer.getInteger("lds.benchmark.startupOperations", 1000)];
+                    long firstTransaction = 0;
+                    for (int i = 0; i < latencies.length; i++) {
+                        String id = String.format("person%07d", i % 100);
+                        long operationStart = System.nanoTime();
+                        try (Transaction tx = cold.createTransaction(true)) {
+                            if (i == 0) {
+                                firstTransaction = System.nanoTime() - operationStart;
+                            }
+                            cold.readDocument(tx, timestamp, namespace, "Person", id).blockingGet();
+                        }
+                        latencies[i] = System.nanoTime() - operationStart;
+                    }
+                    long steadyState = new Measurement(mode, Arrays.copyOfRange(latencies, latencies.length * 3 / 4, latencies.length)).percentileNanos(50);
+                    LOG.info("{}: construction {} ms, warmup {} ms, first transaction {} µs, first query {} µs, steady state {} µs reached after {} operations",
+                            mode, TimeUnit.NANOSECONDS.toMillis(constructed - start), TimeUnit.NANOSECONDS.toMillis(warmedUp - constructed),
+                            TimeUnit.NANOSECONDS.toMicros(firstTransaction), TimeUnit.NANOSECONDS.toMicros(latencies[0]),
+                            TimeUnit.NANOSECONDS.toMicros(steadyState), operationsUntilSteadyState(latencies, steadyState));
+                } finally {
+                    cold.close();
+                }
+            }
+        } finally {
+            try (Transaction tx = persistence.createTransaction(false)) {
+                persistence.deleteAllEntities(tx, namespace, "Person", specification).blockingAwait();
+            }
+        }
+    }
+
+    /**
+     * The number of operations before the median of a sliding window of 20 latencies stays within 20% of the
+     * steady-state latency.
+     */
+    static int operationsUntilSteadyState(long[] latencies, long steadyState) {
+        int window = Math.min(20, latencies.length);
+        int lastOutside = -1;
+        for (int i = 0; i + window <= latencies.length; i++) {
+            long[] sorted = Arrays.copyOfRange(latencies, i, i + window);
+            Arrays.sort(sorted);
+            if (sorted[window / 2] > steadyState * 1.2) {
+                lastOutside = i;
+            }
+        }
+        return lastOutside + 1;
+    }
+
+    @Test(groups = "benchmark")
+    public void benchmarkShardScaling() {
+        int documents = Integer.getInteger("lds.benchmark.documents", 10000);
+        ZonedDateTime timestamp = parse("2000-01-01T00:00:00.000Z");
+        for (int shardCount : List.of(1, 2, 4, 8)) {
+            List<RxJsonPersistence> shards = new ArrayList<>();
+            for (int i = 0; i < shardCount; i++) {
+                shards.add(createShard(i));
+            }
+            ShardedPersistence sharded = new ShardedPersistence(shards, specification);
+            try {
+                long start = System.nanoTime();
+                try (Transaction tx = sharded.createTransaction(false)) {
+                    sharded.createOrOverwrite(tx, Flowable.range(0, documents)
+                            .map(i -> toDocument(namespace, "Person", String.format("person%07d", i), createPerson("John", "Smith " + i), timestamp)), specification)
+                            .blockingAwait();
+                }
+                long written = System.nanoTime() - start;
+                LOG.info("{} shards: wrote {} documents at {} documents/s", shardCount, documents,
+                        String.format("%.0f", documents * 1e9 / written));
+                measure(shardCount + " shards readDocument", () -> {
+                    try (Transaction tx = sharded.createTransaction(true)) {
+                        String id = String.format("person%07d", ThreadLocalRandom.current().nextInt(documents));
+                        sharded.readDocument(tx, timestamp, namespace, "Person", id).blockingGet();
+                    }
+                });
+                measure(shardCount + " shards readDocuments(firstAfter(100))", () -> {
+                    try (Transaction tx = sharded.createTransaction(true)) {
+                        String after = String.format("person%07d", ThreadLocalRandom.current().nextInt(documents));
+                        sharded.readDocuments(tx, timestamp, namespace, "Person", Range.firstAfter(100, after)).blockingSubscribe();
+                    }
+                });
+                measure(shardCount + " shards readDocuments(unbounded)", 1, 5, () -> {
+                    try (Transaction tx = sharded.createTransaction(true)) {
+                        sharded.readDocuments(tx, timestamp, namespace, "Person", Range.unbounded()).blockingSubscribe();
+                    }
+                });
+            } finally {
+                try (Transaction tx = sharded.createTransaction(false)) {
+                    sharded.deleteAllEntities(tx, namespace, "Person", specification).blockingAwait();
+                }
+                sharded.close();
+            }
+        }
+    }
+
+    @Test(groups = "benchmark")
+    public void benchmarkTieredStorage() {
+        TieredPersistence tiered = Capabilities.require(persistence, TieredPersistence.class);
+        int documents = 100;
+        int versions = Integer.getInteger("lds.benchmark.versions", 100);
+        ZonedDateTime timestamp = parse("2000-01-01T00:00:00.000Z");
+        try (Transaction tx = persistence.createTransaction(false)) {
+            persistence.deleteAllEntities(tx, namespace, "Person", specification).blockingAwait();
+            persistence.createOrOverwrite(tx, Flowable.range(0, documents * versions)
+                    .map(i -> toDocument(namespace, "Person", String.format("person%07d", i % documents), createPerson("John", "Smith " + i),
+                            timestamp.plusDays(i / documents))), specification)
+                    .blockingAwait();
+        }
+        ZonedDateTime latest = timestamp.plusDays(versions);
+        ZonedDateTime historical = timestamp.plusDays(versions / 4);
+        try {
+            List<Measurement> hot = measureVersionReads("before tiering", documents, latest, historical);
+            try (Transaction tx = persistence.createTransaction(false)) {
+                StorageSize before = tiered.storageSize(tx, namespace).blockingGet();
+                long start = System.nanoTime();
+                long moved = tiered.tierVersionsBefore(tx, namespace, latest.minusDays(1)).blockingGet();
+                LOG.info("Tiered {} versions in {} ms", moved, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                StorageSize after = tiered.storageSize(tx, namespace).blockingGet();
+                LOG.info("Storage before tiering: {}, after tiering: {} ({}% of total)", before, after,
+                        String.format("%.1f", 100.0 * after.totalBytes() / before.totalBytes()));
+            }
+            List<Measurement> tieredMeasurements = measureVersionReads("after tiering", documents, latest, historical);
+            for (int i = 0; i < hot.size(); i++) {
+                report(hot.get(i), tieredMeasurements.get(i));
+            }
+        } finally {
+            try (Transaction tx = persistence.createTransaction(false)) {
+                persistence.deleteAllEntities(tx, namespace, "Person", specification).blockingAwait();
+            }
+        }
+    }
+
+    private List<Measurement> measureVersionReads(String phase, int documents, ZonedDateTime latest, ZonedDateTime historical) {
+        return List.of(
+                measure("readDocument(latest) " + phase, () -> {
+                    try (Transaction tx = persistence.createTransaction(true)) {
+                        String id = String.format("person%07d", ThreadLocalRandom.current().nextInt(documents));
+                        persistence.readDocument(tx, latest, namespace, "Person", id).blockingGet();
+                    }
+                }),
+                measure("readDocument(historical) " + phase, () -> {
+                    try (Transaction tx = persistence.createTransaction(true)) {
+                        String id = String.format("person%07d", ThreadLocalRandom.current().nextInt(documents));
+                        persistence.readDocument(tx, historical, namespace, "Person", id).blockingGet();
+                    }
+                }),
+                measure("readDocumentVersions(unbounded) " + phase, () -> {
+                    try (Transaction tx = persistence.createTransaction(true)) {
+                        String id = String.format("person%07d", ThreadLocalRandom.current().nextInt(documents));
+                        persistence.readDocumentVersions(tx, namespace, "Person", id, Range.unbounded()).blockingSubscribe();
+                    }
+                })
+        );
+    }
+
+    @Test(groups = "benchmark")
+    public void benchmarkDeduplicatedWrites() {
+        DeduplicatingPersistence deduplicating = Capabilities.require(persistence, DeduplicatingPersistence.class);
+        int writes = Integer.getInteger("lds.benchmark.documents", 10000);
+        double duplicateRatio = Double.parseDouble(System.getProperty("lds.benchmark.duplicateRatio", "0.9"));
+        int documents = 100;
+        ZonedDateTime timestamp = parse("2000-01-01T00:00:00.000Z");
+        // The same feed for both modes: a resent document keeps the content of the previous write of that id.
+        List<JsonDocument> feed = new ArrayList<>(writes);
+        Random random = new Random(1);
+        int[] revisions = new int[documents];
+        for (int i = 0; i < writes; i++) {
+            int document = i % documents;
+            if (i >= documents && random.nextDouble() >= duplicateRatio) {
+                revisions[document]++;
+            }
+            feed.add(toDocument(namespace, "Person", String.format("person%07d", document),
+                    createPerson("John", "Smith " + revisions[document]), timestamp.plusMinutes(i)));
+        }
+        for (boolean deduplicate : List.of(false, true)) {
+            String mode = deduplicate ? "createIfChanged" : "createOrOverwrite";
+            try (Transaction tx = persistence.createTransaction(false)) {
+                persistence.deleteAllEntities(tx, namespace, "Person", specification).blockingAwait();
+            }
+            try {
+                long start = System.nanoTime();
+                long written = 0;
+                for (int i = 0; i < feed.size(); i += 100) {
+                    try (Transaction tx = persistence.createTransaction(false)) {
+                        List<JsonDocument> batch = feed.subList(i, Math.min(i + 100, feed.size()));
+                        if (deduplicate) {
+                            written += Flowable.fromIterable(batch)
+                                    .concatMapSingle(document -> deduplicating.createIfChanged(tx, document, specification))
+                                    .filter(Boolean::booleanValue)
+                                    .count()
+                                    .blockingGet();
+                        } else {
+                            Flowable.fromIterable(batch)
+                                    .concatMapCompletable(document -> persistence.createOrOverwrite(tx, document, specification))
+                                    .blockingAwait();
+                            written += batch.size();
+                        }
+                    }
+                }
+                long elapsed = System.nanoTime() - start;
+                long versions;
+                try (Transaction tx = persistence.createTransaction(true)) {
+                    versions = Flowable.range(0, documents)
+                            .concatMapSingle(i -> persistence.readDocumentVersions(tx, namespace, "Person", String.format("person%07d", i), Range.unbounded()).count())
+                            .reduce(0L, Long::sum)
+                            .blockingGet();
+                }
+                LOG.info("{}: {} of {} writes stored at {} writes/s, {} versions stored ({}% duplicates in feed)", mode, written, writes,
+                        String.format("%.0f", writes * 1e9 / elapsed), versions, String.format("%.0f", duplicateRatio * 100));
+            } finally {
+                try (Transaction tx = persistence.createTransaction(false)) {
+                    persistence.deleteAllEntities(tx, namespace, "Person", specification).blockingAwait();
+                }
+            }
+        }
+    }
+
+    @Test(groups = "benchmark")
+    public void benchmarkReferenceExtraction() {
+        int refs = Integer.getInteger("lds.benchmark.refs", 5000);
+        List<String> previousAddresses = IntStream.range(0, refs)
+                .mapToObj(i -> (i % 2 == 0 ? "/Address/" : "/FunkyLongAddress/") + String.format("address%07d", i))
+                .collect(Collectors.toList());
+        ObjectNode person = createPerson("John", "Smith", "/Address/oslo", "/FunkyLongAddress/trondheim", previousAddresses);
+        byte[] json = JsonTools.toJson(person).getBytes(StandardCharsets.UTF_8);
+        ReferenceExtractor extractor = new ReferenceExtractor(specification);
+        List<JsonNavigationPath> refPaths = List.of(JsonNavigationPath.from("$.history.currentAddress"), JsonNavigationPath.from("$.history.workAddress"),
+                JsonNavigationPath.from("$.history.previousAddresses[]"));
+        long[] found = new long[1];
+        Measurement tree = measure("readTree + navigate " + refs + " refs", () -> {
+            try {
+                JsonNode document = JsonTools.mapper.readTree(json);
+                for (JsonNavigationPath path : refPaths) {
+                    for (JsonNode value : JsonNavigation.values(document, path)) {
+                        String link = value.textValue();
+                        int separator = link.indexOf('/', 1);
+                        found[0] += link.substring(1, separator).length() + link.substring(separator + 1).length();
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        Measurement fromBytes = measure("ReferenceExtractor on bytes, " + refs + " refs",
+                () -> extractor.extract("Person", json, (path, targetEntity, targetId) -> found[0] += targetEntity.length() + targetId.length()));
+        Measurement fromTree = measure("ReferenceExtractor on tree, " + refs + " refs",
+                () -> extractor.extract("Person", person, (path, targetEntity, targetId) -> found[0] += targetEntity.length() + targetId.length()));
+        LOG.debug("{}", found[0]);
+        report(tree, fromBytes);
+        report(tree, fromTree);
+    }
+
+    @Test(groups = "benchmark")
+    public void benchmarkNamespaceReset() {
+        ResettablePersistence resettable = Capabilities.require(persistence, ResettablePersistence.class);
+        int documents = Integer.getInteger("lds.benchmark.documents", 10000);
+        ZonedDateTime timestamp = parse("2000-01-01T00:00:00.000Z");
+        Runnable loadFixture = () -> {
+            try (Transaction tx = persistence.createTransaction(false)) {
+                persistence.createOrOverwrite(tx, Flowable.range(0, documents)
+                        .map(i -> i % 2 == 0
+                                ? toDocument(namespace, "Address", String.format("address%07d", i), createAddress("City " + i, "", "Norway"), timestamp)
+                                : toDocument(namespace, "Person", String.format("person%07d", i), createPerson("John", "Smith", String.format("/Address/address%07d", i - 1),
+                                String.format("/Address/address%07d", i - 1), List.of()), timestamp)), specification)
+                        .blockingAwait();
+            }
+        };
+        String snapshot = "benchmarkNamespaceReset";
+        try {
+            Measurement delete = measure("deleteAllEntities x3 + load " + documents + " documents", 1, 5, () -> {
+                try (Transaction tx = persistence.createTransaction(false)) {
+                    for (String entity : List.of("Person", "Address", "FunkyLongAddress")) {
+                        persistence.deleteAllEntities(tx, namespace, entity, specification).blockingAwait();
+                    }
+                }
+                loadFixture.run();
+            });
+            Measurement truncate = measure("truncateNamespace + load " + documents + " documents", 1, 5, () -> {
+                try (Transaction tx = persistence.createTransaction(false)) {
+                    resettable.truncateNamespace(tx, namespace).blockingAwait();
+                }
+                loadFixture.run();
+            });
+            resettable.snapshot(namespace, snapshot).blockingAwait();
+            Measurement restore = measure("restore snapshot of " + documents + " documents", 1, 5,
+                    () -> resettable.restore(namespace, snapshot).blockingAwait());
+            report(delete, truncate);
+            report(delete, restore);
+        } finally {
+            try (Transaction tx = persistence.createTransaction(false)) {
+                resettable.truncateNamespace(tx, namespace).blockingAwait();
+            }
+        }
+    }
+
+    @Test(groups = "benchmark")
+    public void benchmarkLargeValues() {
+        ZonedDateTime timestamp = parse("2000-01-01T00:00:00.000Z");
+        String maxAmplification = System.getProperty("lds.benchmark.maxHeapAmplification");
+        List<String> exceeded = new ArrayList<>();
+        for (String sizeMb : System.getProperty("lds.benchmark.largeValueSizesMb", "1,10,100").split(",")) {
+            int length = Integer.parseInt(sizeMb.trim()) * 1024 * 1024;
+            JsonDocument document = toDocument(namespace, "FunkyLongAddress", "large", createAddress(createLargeString(length), "NY", "USA"), timestamp);
+            try {
+                long writeHeap = peakHeapDuring(() -> {
+                    try (Transaction tx = persistence.createTransaction(false)) {
+                        persistence.createOrOverwrite(tx, document, specification).blockingAwait();
+                    }
+                });
+                long readHeap = peakHeapDuring(() -> {
+                    try (Transaction tx = persistence.createTransaction(true)) {
+                        persistence.readDocument(tx, timestamp, namespace, "FunkyLongAddress", "large").blockingGet();
+                    }
+                });
+                Measurement write = measure(sizeMb + " MB createOrOverwrite", 1, 3, () -> {
+                    try (Transaction tx = persistence.createTransaction(false)) {
+                        persistence.createOrOverwrite(tx, document, specification).blockingAwait();
+                    }
+                });
+                Measurement read = measure(sizeMb + " MB readDocument", 1, 3, () -> {
+                    try (Transaction tx = persistence.createTransaction(true)) {
+                        persistence.readDocument(tx, timestamp, namespace, "FunkyLongAddress", "large").blockingGet();
+                    }
+                });
+                double writeAmplification = (double) writeHeap / length;
+                double readAmplification = (double) readHeap / length;
+                LOG.info("{} MB: write {} MB/s, peak heap {}x value size; read {} MB/s, peak heap {}x value size", sizeMb,
+                        String.format("%.1f", Integer.parseInt(sizeMb.trim()) * write.opsPerSecond()), String.format("%.1f", writeAmplification),
+                        String.format("%.1f", Integer.parseInt(sizeMb.trim()) * read.opsPerSecond()), String.format("%.1f", readAmplification));
+                if (maxAmplification != null && Math.max(writeAmplification, readAmplification) > Double.parseDouble(maxAmplification)) {
+                    exceeded.add(String.format("%s MB: peak heap of %.1fx (write) and %.1fx (read) the value size exceeds %s",
+                            sizeMb, writeAmplification, readAmplification, maxAmplification));
+                }
+            } finally {
+                try (Transaction tx = persistence.createTransaction(false)) {
+                    persistence.deleteAllDocumentVersions(tx, namespace, "FunkyLongAddress", "large", PersistenceDeletePolicy.FAIL_IF_INCOMING_LINKS).blockingAwait();
+                }
+            }
+        }
+        if (!exceeded.isEmpty()) {
+            throw new AssertionError(String.join("; ", exceeded));
+        }
+    }
+
+    /**
+     * Heap allocated above the level after a full collection while the operation runs, summed over the peaks of
+     * each heap pool. Pools peak at different times and garbage is counted until collected, so this is an upper
+     * bound.
+     */
+    static long peakHeapDuring(Runnable operation) {
+        List<MemoryPoolMXBean> heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP)
+                .collect(Collectors.toList());
+        System.gc();
+        long before = heapPools.stream().mapToLong(pool -> pool.getUsage().getUsed()).sum();
+        heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+        operation.run();
+        long peak = heapPools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+        return Math.max(0, peak - before);
+    }
+
+    @Test(groups = "benchmark")
+    public void benchmarkNegativeLookups() {
+        MembershipFilterPersistence filter = Capabilities.require(persistence, MembershipFilterPersistence.class);
+        int documents = Integer.getInteger("lds.benchmark.documents", 10000);
+        double missRatio = Double.parseDouble(System.getProperty("lds.benchmark.missRatio", "0.9"));
+        ZonedDateTime timestamp = parse("2000-01-01T00:00:00.000Z");
+        JsonNavigationPath lastname = JsonNavigationPath.from("$.lastname");
+        try (Transaction tx = persistence.createTransaction(false)) {
+            persistence.deleteAllEntities(tx, namespace, "Person", specification).blockingAwait();
+            persistence.createOrOverwrite(tx, Flowable.range(0, documents)
+                    .map(i -> toDocument(namespace, "Person", String.format("person%07d", i), createPerson("John", "Smith " + i), timestamp)), specification)
+                    .blockingAwait();
+        }
+        Random random = new Random(1);
+        int lookups = 1000;
+        // Misses use numbers beyond the loaded documents.
+        int[] numbers = IntStream.range(0, lookups)
+                .map(i -> random.nextDouble() < missRatio ? documents + random.nextInt(documents) : random.nextInt(documents))
+                .toArray();
+        try {
+            long falsePositives = Arrays.stream(numbers)
+                    .filter(n -> n >= documents && filter.mightContain(namespace, "Person", String.format("person%07d", n)))
+                    .count();
+            long misses = Arrays.stream(numbers).filter(n -> n >= documents).count();
+            LOG.info("mightContain: {} false positives in {} misses ({}%)", falsePositives, misses,
+                    String.format("%.2f", misses == 0 ? 0.0 : 100.0 * falsePositives / misses));
+            Measurement read = measure(lookups + " x readDocument, " + String.format("%.0f", missRatio * 100) + "% misses", 2, 10, () -> {
+                try (Transaction tx = persistence.createTransaction(true)) {
+                    for (int n : numbers) {
+                        persistence.readDocument(tx, timestamp, namespace, "Person", String.format("person%07d", n)).blockingGet();
+                    }
+                }
+            });
+            Measurement guardedRead = measure(lookups + " x mightContain + readDocument, " + String.format("%.0f", missRatio * 100) + "% misses", 2, 10, () -> {
+                try (Transaction tx = persistence.createTransaction(true)) {
+                    for (int n : numbers) {
+                        String id = String.format("person%07d", n);
+                        if (filter.mightContain(namespace, "Person", id)) {
+                            persistence.readDocument(tx, timestamp, namespace, "Person", id).blockingGet();
+                        }
+                    }
+                }
+            });
+            report(read, guardedRead);
+            Measurement find = measure(lookups + " x findDocument, " + String.format("%.0f", missRatio * 100) + "% misses", 1, 3, () -> {
+                try (Transaction tx = persistence.createTransaction(true)) {
+                    for (int n : numbers) {
+                        persistence.findDocument(tx, timestamp, namespace, "Person", lastname, "Smith " + n, Range.unbounded()).blockingSubscribe();
+                    }
+                }
+            });
+            Measurement guardedFind = measure(lookups + " x mightMatch + findDocument, " + String.format("%.0f", missRatio * 100) + "% misses", 1, 3, () -> {
+                try (Transaction tx = persistence.createTransaction(true)) {
+                    for (int n : numbers) {
+                        if (filter.mightMatch(namespace, "Person", lastname, "Smith " + n)) {
+                            persistence.findDocument(tx, timestamp, namespace, "Person", lastname, "Smith " + n, Range.unbounded()).blockingSubscribe();
+                        }
+                    }
+                }
+            });
+            report(find, guardedFind);
+        } finally {
+            try (Transaction tx = persistence.createTransaction(false)) {
+                persistence.deleteAllEntities(tx, namespace, "Person", specification).blockingAwait();
+            }
+        }
+    }
+
+    @Test(groups = "benchmark")
+    public void benchmarkSchemaWidthAndDepth() {
+        int idsPerEntity = Integer.getInteger("lds.benchmark.schemaIdsPerEntity", 20);
+        ZonedDateTime timestamp = parse("2000-01-01T00:00:00.000Z");
+        for (String width : System.getProperty("lds.benchmark.schemaWidths", "10,100,500").split(",")) {
+            for (String depth : System.getProperty("lds.benchmark.schemaDepths", "1,4,8").split(",")) {
+                SpecificationGenerator generator = new SpecificationGenerator(1)
+                        .managedDomains(Integer.parseInt(width.trim()))
+                        .depth(Integer.parseInt(depth.trim()))
+                        .idsPerEntity(idsPerEntity);
+                Specification generated = generator.generateSpecification();
+                List<String> entities = generated.getManagedDomains().stream().sorted().collect(Collectors.toList());
+                List<JsonDocument> documents = new ArrayList<>();
+                for (String entity : entities) {
+                    for (int i = 0; i < idsPerEntity; i++) {
+                        documents.add(toDocument(namespace, entity, SpecificationGenerator.id(i), generator.generateDocument(generated, entity, i), timestamp));
+                    }
+                }
+                String schema = String.format("width %s, depth %s", width.trim(), depth.trim());
+                try {
+                    long start = System.nanoTime();
+                    try (Transaction tx = persistence.createTransaction(false)) {
+                        persistence.createOrOverwrite(tx, Flowable.fromIterable(documents), generated).blockingAwait();
+                    }
+                    LOG.info("{}: wrote {} documents at {} documents/s", schema, documents.size(),
+                            String.format("%.0f", documents.size() * 1e9 / (System.nanoTime() - start)));
+                    measure(schema + " createOrOverwrite", () -> {
+                        JsonDocument document = documents.get(ThreadLocalRandom.current().nextInt(documents.size()));
+                        try (Transaction tx = persistence.createTransaction(false)) {
+                            persistence.createOrOverwrite(tx, document, generated).blockingAwait();
+                        }
+                    });
+                    measure(schema + " readDocument", () -> {
+                        JsonDocument document = documents.get(ThreadLocalRandom.current().nextInt(documents.size()));
+                        try (Transaction tx = persistence.createTransaction(true)) {
+                            persistence.readDocument(tx, timestamp, namespace, document.key().entity(), document.key().id()).blockingGet();
+                        }
+                    });
+                    measure(schema + " readDocuments(unbounded)", () -> {
+                        String entity = entities.get(ThreadLocalRandom.current().nextInt(entities.size()));
+                        try (Transaction tx = persistence.createTransaction(true)) {
+                            persistence.readDocuments(tx, timestamp, namespace, entity, Range.unbounded()).blockingSubscribe();
+                        }
+                    });
+                } finally {
+                    try (Transaction tx = persistence.createTransaction(false)) {
+                        for (String entity : entities) {
+                            persistence.deleteAllEntities(tx, namespace, entity, generated).blockingAwait();
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test(groups = "benchmark")
+    public void benchmarkNamespaceExportImport() {
+        Capabilities.require(persistence, ChangeFeedPersistence.class);
+        int documents = Integer.getInteger("lds.benchmark.documents", 10000);
+        int chunkSize = Integer.getInteger("lds.benchmark.chunkSize", 1000);
+        ZonedDateTime timestamp = parse("2000-01-01T00:00:00.000Z");
+        String importNamespace = namespace + "_import";
+        List<JsonDocument> fixture = new ArrayList<>(documents);
+        for (int i = 0; i < documents; i++) {
+            fixture.add(i % 2 == 0
+                    ? toDocument(namespace, "Address", String.format("address%07d", i), createAddress("City " + i, "", "Norway"), timestamp)
+                    : toDocument(namespace, "Person", String.format("person%07d", i), createPerson("John", "Smith", String.format("/Address/address%07d", i - 1),
+                    String.format("/Address/address%07d", i - 1), List.of()), timestamp));
+        }
+        try (Transaction tx = persistence.createTransaction(false)) {
+            persistence.createOrOverwrite(tx, Flowable.fromIterable(fixture), specification).blockingAwait();
+        }
+        long jsonBytes = fixture.stream().mapToLong(document -> document.jackson().toString().getBytes(StandardCharsets.UTF_8).length).sum();
+        try {
+            NamespaceExporter exporter = new NamespaceExporter(persistence).chunkSize(chunkSize);
+            NamespaceImporter importer = new NamespaceImporter(persistence, specification);
+            ByteArrayOutputStream[] archive = new ByteArrayOutputStream[1];
+            Measurement export = measure("export " + documents + " documents", 1, 5, () -> {
+                archive[0] = new ByteArrayOutputStream();
+                exporter.export(namespace, archive[0]).blockingGet();
+            });
+            byte[] bytes = archive[0].toByteArray();
+            Measurement importing = measure("import " + documents + " documents", 1, 5, () -> {
+                try (Transaction tx = persistence.createTransaction(false)) {
+                    for (String entity : specification.getManagedDomains()) {
+                        persistence.deleteAllEntities(tx, importNamespace, entity, specification).blockingAwait();
+                    }
+                }
+                importer.importInto(importNamespace, new ByteArrayInputStream(bytes)).blockingGet();
+            });
+            LOG.info("export {} documents/s, import {} documents/s (including clearing the target namespace)",
+                    String.format("%.0f", documents * export.opsPerSecond()), String.format("%.0f", documents * importing.opsPerSecond()));
+            LOG.info("archive {} bytes/document, JSON {} bytes/document", String.format("%.1f", (double) bytes.length / documents),
+                    String.format("%.1f", (double) jsonBytes / documents));
+        } finally {
+            try (Transaction tx = persistence.createTransaction(false)) {
+                for (String entity : specification.getManagedDomains()) {
+                    persistence.deleteAllEntities(tx, namespace, entity, specification).blockingAwait();
+                    persistence.deleteAllEntities(tx, importNamespace, entity, specification).blockingAwait();
+                }
+            }
+        }
+    }
+
+    @Test(groups = "benchmark")
+    public void benchmarkBatchSnapshotReads() {
+        BatchSnapshotPersistence batch = Capabilities.require(persistence, BatchSnapshotPersistence.class);
+        int documents = Integer.getInteger("lds.benchmark.documents", 10000);
+        int snapshotCount = Integer.getInteger("lds.benchmark.snapshots", 24);
+        LOG.info("Reading {} ids at {} snapshots; the target scale is 1000000 ids (-Dlds.benchmark.documents=1000000)", documents, snapshotCount);
+        ZonedDateTime start = parse("2000-01-01T00:00:00.000Z");
+        List<ZonedDateTime> snapshots = new ArrayList<>(snapshotCount);
+        for (int month = 1; month <= snapshotCount; month++) {
+            // Month-end, as read by reporting jobs.
+            snapshots.add(start.plusMonths(month).minusNanos(1000000));
+        }
+        // Every document gets a new version every few months, at an offset of its own.
+        try (Transaction tx = persistence.createTransaction(false)) {
+            persistence.createOrOverwrite(tx, Flowable.range(0, documents)
+                    .concatMap(i -> Flowable.range(0, snapshotCount / 3 + 1)
+                            .map(version -> toDocument(namespace, "Person", String.format("person%07d", i),
+                                    createPerson("John", "Smith " + version), start.plusMonths(3L * version + i % 3)))), specification)
+                    .blockingAwait();
+        }
+        try {
+            long[] expected = new long[1];
+            Measurement perSnapshot = measure(snapshotCount + " x readDocuments", 1, 3, () -> {
+                try (Transaction tx = persistence.createTransaction(true)) {
+                    long count = 0;
+                    for (ZonedDateTime snapshot : snapshots) {
+                        count += persistence.readDocuments(tx, snapshot, namespace, "Person", Range.unbounded()).count().blockingGet();
+                    }
+                    expected[0] = count;
+                }
+            });
+            Measurement batched = measure("readDocumentsAt " + snapshotCount + " snapshots", 1, 3, () -> {
+                try (Transaction tx = persistence.createTransaction(true)) {
+                    long count = batch.readDocumentsAt(tx, snapshots, namespace, "Person", Range.unbounded()).count().blockingGet();
+                    if (count != expected[0]) {
+                        throw new AssertionError("readDocumentsAt returned " + count + " documents, expected " + expected[0]);
+                    }
+                }
+            });
+            report(perSnapshot, batched);
+        } finally {
+            try (Transaction tx = persistence.createTransaction(false)) {
+                persistence.deleteAllEntities(tx, namespace, "Person", specification).blockingAwait();
+            }
+        }
+    }
+}
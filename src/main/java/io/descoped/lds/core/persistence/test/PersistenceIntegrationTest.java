@@ -7,6 +7,7 @@ import io.descoped.lds.api.json.JsonNavigationPath;
 import io.descoped.lds.api.persistence.DocumentKey;
 import io.descoped.lds.api.persistence.PersistenceDeletePolicy;
 import io.descoped.lds.api.persistence.Transaction;
+import io.descoped.lds.api.persistence.TransactionStatistics;
 import io.descoped.lds.api.persistence.json.JsonDocument;
 import io.descoped.lds.api.persistence.json.JsonTools;
 import io.descoped.lds.api.persistence.reactivex.Range;
@@ -14,10 +15,24 @@ import io.descoped.lds.api.persistence.reactivex.RxJsonPersistence;
 import io.descoped.lds.api.specification.Specification;
 import io.descoped.lds.api.specification.SpecificationElementType;
 import io.reactivex.Flowable;
+import io.reactivex.Maybe;
+import io.reactivex.Single;
+import io.reactivex.schedulers.Schedulers;
 import org.json.JSONException;
 import org.skyscreamer.jsonassert.JSONAssert;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.IHookCallBack;
+import org.testng.IHookable;
+import org.testng.ITestResult;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Duration;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
@@ -28,7 +43,13 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import static io.descoped.lds.api.persistence.json.JsonTools.mapper;
@@ -44,6 +65,7 @@ import static java.time.ZonedDateTime.now;
 import static java.time.ZonedDateTime.of;
 import static java.time.ZonedDateTime.parse;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
@@ -51,17 +73,115 @@ import static org.testng.Assert.assertNotSame;
 import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertTrue;
 
-public abstract class PersistenceIntegrationTest {
+public abstract class PersistenceIntegrationTest implements IHookable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PersistenceIntegrationTest.class);
 
     protected final Specification specification;
     protected final String namespace;
     protected RxJsonPersistence persistence;
+    private final Set<String> loadedFixtures = new LinkedHashSet<>();
+    private long suiteStart;
 
     protected PersistenceIntegrationTest(String namespace) {
         this.namespace = namespace;
         this.specification = buildSpecification();
     }
 
+    @BeforeClass(alwaysRun = true)
+    public void startSuiteClock() {
+        suiteStart = System.nanoTime();
+    }
+
+    /**
+     * Logs the time the suite took and how {@link #resetNamespace(Transaction)} reset the namespace, so that runs with
+     * and without {@code lds.test.truncate} can be compared.
+     */
+    @AfterClass(alwaysRun = true)
+    public void logSuiteTime() {
+        LOG.info("{} took {} ms, resetting the namespace with {}", getClass().getSimpleName(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - suiteStart), truncates() ? "truncateNamespace" : "deleteAllEntities");
+    }
+
+    /**
+     * Fails a passed test if the provider still holds transactions, cursors, commits or connections after it. The
+     * check runs as part of the test method, so the failure is reported on the test itself.
+     */
+    @Override
+    public void run(IHookCallBack callBack, ITestResult testResult) {
+        callBack.runTestMethod(testResult);
+        if (testResult.getThrowable() != null || !(persistence instanceof MeasurablePersistence)) {
+            return;
+        }
+        PersistenceMetrics metrics = ((MeasurablePersistence) persistence).metrics();
+        if (!awaitRelease(metrics::isIdle)) {
+            throw new AssertionError(format("%s left resources open: %s", testResult.getMethod().getMethodName(), metrics.describe()));
+        }
+    }
+
+    /**
+     * Waits for resources that are released asynchronously, for at most {@code lds.test.releaseTimeoutMs}.
+     *
+     * @return whether the condition holds
+     */
+    protected static boolean awaitRelease(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + Long.getLong("lds.test.releaseTimeoutMs", 1000);
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() >= deadline) {
+                return false;
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return condition.getAsBoolean();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Removes all documents of the entities in the test specification. Providers implementing
+     * {@link ResettablePersistence} truncate the whole namespace instead, unless {@code lds.test.truncate} is
+     * {@code false}; running the suite both ways compares the two.
+     */
+    protected void resetNamespace(Transaction tx) {
+        resetNamespace(tx, specification);
+    }
+
+    protected void resetNamespace(Transaction tx, Specification specification) {
+        if (truncates()) {
+            ((ResettablePersistence) persistence).truncateNamespace(tx, namespace).blockingAwait();
+            return;
+        }
+        for (String entity : specification.getManagedDomains()) {
+            persistence.deleteAllEntities(tx, namespace, entity, specification).blockingAwait();
+        }
+    }
+
+    private boolean truncates() {
+        return persistence instanceof ResettablePersistence && Boolean.parseBoolean(System.getProperty("lds.test.truncate", "true"));
+    }
+
+    /**
+     * Makes the namespace contain exactly the documents written by the loader. Providers implementing
+     * {@link ResettablePersistence} load each named fixture once and restore it from a snapshot afterwards.
+     */
+    protected void loadFixture(String name, Consumer<Transaction> loader) {
+        if (persistence instanceof ResettablePersistence && loadedFixtures.contains(name)) {
+            ((ResettablePersistence) persistence).restore(namespace, name).blockingAwait();
+            return;
+        }
+        try (Transaction tx = persistence.createTransaction(false)) {
+            resetNamespace(tx);
+            loader.accept(tx);
+        }
+        if (persistence instanceof ResettablePersistence) {
+            ((ResettablePersistence) persistence).snapshot(namespace, name).blockingAwait();
+            loadedFixtures.add(name);
+        }
+    }
+
     protected static ObjectNode createPerson(String firstname, String lastname) {
         ObjectNode person = mapper.createObjectNode();
         person.put("firstname", firstname);
@@ -92,8 +212,73 @@ public abstract class PersistenceIntegrationTest {
         return address;
     }
 
-    protected Specification buildSpecification() {
+    protected static ObjectNode createSimpleArrayPeople() {
+        ObjectNode people = mapper.createObjectNode();
+        people.putArray("name").add("John Smith").add("Jane Doe");
+        return people;
+    }
+
+    protected static ObjectNode createComplexArrayPeople() {
+        ObjectNode people = mapper.createObjectNode();
+        ArrayNode name = people.putArray("name");
+        name.addObject().put("first", "John").put("last", "Smith");
+        name.addObject().put("first", "Jane").put("last", "Doe");
+        return people;
+    }
+
+    protected static Specification simpleArraySpecification() {
+        return SpecificationBuilder.createSpecificationAndRoot(Set.of(
+                objectNode(SpecificationElementType.MANAGED, "People", Set.of(
+                        arrayNode("name", stringNode("[]"))
+                ))
+        ));
+    }
+
+    protected static Specification complexArraySpecification() {
         return SpecificationBuilder.createSpecificationAndRoot(Set.of(
+                objectNode(SpecificationElementType.MANAGED, "People", Set.of(
+                        arrayNode("name",
+                                objectNode(SpecificationElementType.EMBEDDED, "[]", Set.of(
+                                        stringNode("first"),
+                                        stringNode("last")
+                                ))
+                        )
+                ))
+        ));
+    }
+
+    protected static String createBigString() {
+        String bigString = "12345678901234567890";
+        for (int i = 0; i < 12; i++) {
+            bigString = bigString + "_" + bigString;
+        }
+        return bigString;
+    }
+
+    /**
+     * A string of the given length of pseudo-random, but repeatable, letters and digits, so it cannot be compressed
+     * much.
+     */
+    protected static String createLargeString(int length) {
+        String alphabet = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+        SplittableRandom random = new SplittableRandom(length);
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = alphabet.charAt(random.nextInt(alphabet.length()));
+        }
+        return new String(chars);
+    }
+
+    protected Specification buildSpecification() {
+        return defaultSpecification();
+    }
+
+    static Specification defaultSpecification() {
+        return SpecificationBuilder.createSpecificationAndRoot(defaultManagedElements());
+    }
+
+    static Set<TestSpecificationElement> defaultManagedElements() {
+        return Set.of(
                 objectNode(SpecificationElementType.MANAGED, "Person", Set.of(
                         stringNode("firstname"),
                         stringNode("lastname"),
@@ -116,7 +301,16 @@ public abstract class PersistenceIntegrationTest {
                         stringNode("state"),
                         stringNode("country")
                 ))
-        ));
+        );
+    }
+
+    protected static Specification departmentSpecification() {
+        Set<TestSpecificationElement> managedElements = new LinkedHashSet<>(defaultManagedElements());
+        managedElements.add(objectNode(SpecificationElementType.MANAGED, "Department", Set.of(
+                stringNode("name"),
+                refNode("head", Set.of("Person"))
+        )));
+        return SpecificationBuilder.createSpecificationAndRoot(managedElements);
     }
 
     private JsonDocument createPerson(String id, ZonedDateTime timestamp) {
@@ -143,9 +337,7 @@ public abstract class PersistenceIntegrationTest {
         JsonDocument jill = toDocument(namespace, "Person", "jill", createPerson("Jill", "Smith", "/Address/oslo", "/FunkyLongAddress/trondheim", List.of("/Address/london", "/FunkyLongAddress/trondheim")), timestamp);
 
         try (Transaction tx = persistence.createTransaction(false)) {
-            persistence.deleteAllEntities(tx, namespace, "Person", specification).blockingAwait();
-            persistence.deleteAllEntities(tx, namespace, "Address", specification).blockingAwait();
-            persistence.deleteAllEntities(tx, namespace, "FunkyLongAddress", specification).blockingAwait();
+            resetNamespace(tx);
 
             persistence.createOrOverwrite(tx, paris, specification).blockingAwait();
             persistence.createOrOverwrite(tx, london, specification).blockingAwait();
@@ -183,9 +375,7 @@ public abstract class PersistenceIntegrationTest {
         JsonDocument jill = toDocument(namespace, "Person", "jill", createPerson("Jill", "Smith", "/Address/oslo", "/FunkyLongAddress/trondheim", List.of("/Address/london", "/FunkyLongAddress/trondheim")), timestamp);
 
         try (Transaction tx = persistence.createTransaction(false)) {
-            persistence.deleteAllEntities(tx, namespace, "Person", specification).blockingAwait();
-            persistence.deleteAllEntities(tx, namespace, "Address", specification).blockingAwait();
-            persistence.deleteAllEntities(tx, namespace, "FunkyLongAddress", specification).blockingAwait();
+            resetNamespace(tx);
 
             persistence.createOrOverwrite(tx, Flowable.just(paris, london, oslo, trondheim, jack, jill), specification).blockingAwait();
 
@@ -223,9 +413,7 @@ public abstract class PersistenceIntegrationTest {
         JsonDocument jill = toDocument(namespace, "Person", "jill", createPerson("Jill", "Smith", "/Address/oslo", "/FunkyLongAddress/trondheim", List.of("/Address/london", "/FunkyLongAddress/trondheim")), timestamp);
 
         try (Transaction tx = persistence.createTransaction(false)) {
-            persistence.deleteAllEntities(tx, namespace, "Person", specification).blockingAwait();
-            persistence.deleteAllEntities(tx, namespace, "Address", specification).blockingAwait();
-            persistence.deleteAllEntities(tx, namespace, "FunkyLongAddress", specification).blockingAwait();
+            resetNamespace(tx);
 
             persistence.createOrOverwrite(tx, paris, specification).blockingAwait();
             persistence.createOrOverwrite(tx, london, specification).blockingAwait();
@@ -275,12 +463,7 @@ public abstract class PersistenceIntegrationTest {
 
             } finally {
                 // Clean up.
-                persistence.deleteAllDocumentVersions(tx, namespace, "Person", "person00",
-                        PersistenceDeletePolicy.CASCADE_DELETE_ALL_INCOMING_LINKS_AND_NODES).blockingAwait();
-                persistence.deleteAllDocumentVersions(tx, namespace, "Person", "person01",
-                        PersistenceDeletePolicy.CASCADE_DELETE_ALL_INCOMING_LINKS_AND_NODES).blockingAwait();
-                persistence.deleteAllDocumentVersions(tx, namespace, "Person", "person02",
-                        PersistenceDeletePolicy.CASCADE_DELETE_ALL_INCOMING_LINKS_AND_NODES).blockingAwait();
+                resetNamespace(tx);
             }
         }
 
@@ -390,10 +573,7 @@ public abstract class PersistenceIntegrationTest {
 
             } finally {
                 // Clean up.
-                persons.flatMapCompletable(document ->
-                        persistence.deleteAllDocumentVersions(tx, namespace, "Person", document.key().id(),
-                                PersistenceDeletePolicy.CASCADE_DELETE_ALL_INCOMING_LINKS_AND_NODES)
-                ).blockingAwait();
+                resetNamespace(tx);
             }
         }
     }
@@ -526,10 +706,7 @@ public abstract class PersistenceIntegrationTest {
 
             } finally {
                 // Clean up.
-                persons.flatMapCompletable(document ->
-                        persistence.deleteAllDocumentVersions(tx, namespace, "Person", document.key().id(),
-                                PersistenceDeletePolicy.CASCADE_DELETE_ALL_INCOMING_LINKS_AND_NODES)
-                ).blockingAwait();
+                resetNamespace(tx);
             }
         }
     }
@@ -795,10 +972,7 @@ public abstract class PersistenceIntegrationTest {
             ZonedDateTime oct18 = of(2018, 10, 7, 19, 49, 26, (int) TimeUnit.MILLISECONDS.toNanos(307), ZoneId.of("Etc/UTC"));
             ZonedDateTime now = now(ZoneId.of("Etc/UTC"));
 
-            String bigString = "12345678901234567890";
-            for (int i = 0; i < 12; i++) {
-                bigString = bigString + "_" + bigString;
-            }
+            String bigString = createBigString();
 
             // Creating funky long address
             persistence.createOrOverwrite(transaction, toDocument(namespace, "FunkyLongAddress", "newyork", createAddress(bigString, "NY", "USA"), oct18), specification).blockingAwait();
@@ -821,17 +995,46 @@ public abstract class PersistenceIntegrationTest {
         }
     }
 
+    @Test
+    public void thatLargeValueRoundTrips() {
+        int length = Integer.getInteger("lds.test.largeValueBytes", 1024 * 1024);
+        ZonedDateTime timestamp = parse("2019-01-01T00:00:00.000Z");
+        String largeString = createLargeString(length);
+        JsonDocument large = toDocument(namespace, "FunkyLongAddress", "large", createAddress(largeString, "NY", "USA"), timestamp);
+        JsonDocument changed = toDocument(namespace, "FunkyLongAddress", "large", createAddress(largeString.substring(1) + "!", "NY", "USA"), timestamp.plusDays(1));
+        try (Transaction tx = persistence.createTransaction(false)) {
+            persistence.deleteAllDocumentVersions(tx, namespace, "FunkyLongAddress", "large", PersistenceDeletePolicy.FAIL_IF_INCOMING_LINKS).blockingAwait();
+            persistence.createOrOverwrite(tx, large, specification).blockingAwait();
+            persistence.createOrOverwrite(tx, changed, specification).blockingAwait();
+        }
+        try (Transaction tx = persistence.createTransaction(true)) {
+            JsonDocument first = persistence.readDocument(tx, timestamp, namespace, "FunkyLongAddress", "large").blockingGet();
+            assertNotNull(first);
+            assertEquals(first.jackson().get("city").textValue().length(), length);
+            assertEquals(first.jackson(), large.jackson());
+            JsonDocument second = persistence.readDocument(tx, timestamp.plusDays(1), namespace, "FunkyLongAddress", "large").blockingGet();
+            assertEquals(second.jackson(), changed.jackson());
+
+            List<JsonDocument> versions = persistence.readDocumentVersions(tx, namespace, "FunkyLongAddress", "large", Range.unbounded()).toList().blockingGet();
+            assertEquals(versions.size(), 2);
+            assertEquals(versions.get(0).jackson(), large.jackson());
+            assertEquals(versions.get(1).jackson(), changed.jackson());
+
+            List<JsonDocument> all = persistence.readDocuments(tx, timestamp, namespace, "FunkyLongAddress", Range.unbounded()).toList().blockingGet();
+            assertTrue(all.stream().anyMatch(document -> document.key().id().equals("large") && document.jackson().equals(large.jackson())));
+        }
+        try (Transaction tx = persistence.createTransaction(false)) {
+            persistence.deleteAllDocumentVersions(tx, namespace, "FunkyLongAddress", "large", PersistenceDeletePolicy.FAIL_IF_INCOMING_LINKS).blockingAwait();
+            assertNull(persistence.readDocument(tx, timestamp, namespace, "FunkyLongAddress", "large").blockingGet());
+        }
+    }
+
     @Test
     public void thatSimpleArrayValuesAreIntact() {
-        Specification specification = SpecificationBuilder.createSpecificationAndRoot(Set.of(
-                objectNode(SpecificationElementType.MANAGED, "People", Set.of(
-                        arrayNode("name", stringNode("[]"))
-                ))
-        ));
+        Specification specification = simpleArraySpecification();
         try (Transaction transaction = persistence.createTransaction(false)) {
             ZonedDateTime oct18 = of(2018, 10, 7, 19, 49, 26, (int) TimeUnit.MILLISECONDS.toNanos(307), ZoneId.of("Etc/UTC"));
-            ObjectNode doc = mapper.createObjectNode();
-            doc.putArray("name").add("John Smith").add("Jane Doe");
+            ObjectNode doc = createSimpleArrayPeople();
             JsonDocument input = toDocument(namespace, "People", "1", doc, oct18);
             persistence.createOrOverwrite(transaction, input, specification).blockingAwait();
             JsonDocument jsonDocument = persistence.readDocument(transaction, oct18, namespace, "People", "1").blockingGet();
@@ -841,22 +1044,10 @@ public abstract class PersistenceIntegrationTest {
 
     @Test
     public void thatComplexArrayValuesAreIntact() {
-        Specification specification = SpecificationBuilder.createSpecificationAndRoot(Set.of(
-                objectNode(SpecificationElementType.MANAGED, "People", Set.of(
-                        arrayNode("name",
-                                objectNode(SpecificationElementType.EMBEDDED, "[]", Set.of(
-                                        stringNode("first"),
-                                        stringNode("last")
-                                ))
-                        )
-                ))
-        ));
+        Specification specification = complexArraySpecification();
         try (Transaction transaction = persistence.createTransaction(false)) {
             ZonedDateTime oct18 = of(2018, 10, 7, 19, 49, 26, (int) TimeUnit.MILLISECONDS.toNanos(307), ZoneId.of("Etc/UTC"));
-            ObjectNode doc = mapper.createObjectNode();
-            ArrayNode name = doc.putArray("name");
-            name.addObject().put("first", "John").put("last", "Smith");
-            name.addObject().put("first", "Jane").put("last", "Doe");
+            ObjectNode doc = createComplexArrayPeople();
             JsonDocument input = toDocument(namespace, "People", "1", doc, oct18);
             persistence.createOrOverwrite(transaction, input, specification).blockingAwait();
             JsonDocument jsonDocument = persistence.readDocument(transaction, oct18, namespace, "People", "1").blockingGet();
@@ -870,9 +1061,7 @@ public abstract class PersistenceIntegrationTest {
         ZonedDateTime timestamp = parse("2019-01-01T00:00:00.000Z");
 
         try (Transaction tx = persistence.createTransaction(false)) {
-            persistence.deleteAllEntities(tx, namespace, "Person", specification).blockingAwait();
-            persistence.deleteAllEntities(tx, namespace, "Address", specification).blockingAwait();
-            persistence.deleteAllEntities(tx, namespace, "FunkyLongAddress", specification).blockingAwait();
+            resetNamespace(tx);
 
             List<String> addressIds = new ArrayList<>();
             for (int i = 0; i < 3; i++) {
@@ -968,6 +1157,1239 @@ public abstract class PersistenceIntegrationTest {
         }
     }
 
+    @Test
+    public void thatRawReadReturnsSameDocumentsAsTreeRead() throws IOException {
+        RawJsonPersistence rawPersistence = Capabilities.require(persistence, RawJsonPersistence.class);
+        ZonedDateTime timestamp = parse("2019-01-01T00:00:00.000Z");
+
+        JsonDocument paris = toDocument(namespace, "Address", "paris", createAddress("Paris", "", "France"), timestamp);
+        JsonDocument oslo = toDocument(namespace, "Address", "oslo", createAddress("Oslo", "", "Norway"), timestamp);
+        JsonDocument newyork = toDocument(namespace, "Address", "newyork", createAddress(createBigString(), "NY", "USA"), timestamp);
+        JsonDocument jack = toDocument(namespace, "Person", "jack", createPerson("Jack", "Smith", "/Address/oslo", "/Address/oslo", List.of("/Address/paris")), timestamp);
+
+        try (Transaction tx = persistence.createTransaction(false)) {
+            resetNamespace(tx);
+
+            persistence.createOrOverwrite(tx, Flowable.just(paris, oslo, newyork, jack), specification).blockingAwait();
+
+            for (JsonDocument expected : List.of(paris, oslo, newyork, jack)) {
+                String entity = expected.key().entity();
+                String id = expected.key().id();
+                RawJsonDocument raw = rawPersistence.readRawDocument(tx, timestamp, namespace, entity, id).blockingGet();
+                JsonDocument tree = persistence.readDocument(tx, timestamp, namespace, entity, id).blockingGet();
+                assertNotNull(raw, format("raw read of /%s/%s", entity, id));
+                assertEquals(raw.key(), tree.key());
+                assertEquals(mapper.readTree(raw.bytes()), tree.jackson());
+                assertEquals(raw.jackson(), expected.jackson());
+            }
+
+            assertNull(rawPersistence.readRawDocument(tx, timestamp, namespace, "Address", "london").blockingGet());
+
+            List<RawJsonDocument> rawAddresses = rawPersistence.readRawDocuments(tx, timestamp, namespace, "Address", Range.unbounded()).toList().blockingGet();
+            List<JsonDocument> treeAddresses = persistence.readDocuments(tx, timestamp, namespace, "Address", Range.unbounded()).toList().blockingGet();
+            assertEquals(rawAddresses.stream().map(RawJsonDocument::key).collect(Collectors.toList()),
+                    treeAddresses.stream().map(JsonDocument::key).collect(Collectors.toList()));
+            for (int i = 0; i < rawAddresses.size(); i++) {
+                assertEquals(rawAddresses.get(i).jackson(), treeAddresses.get(i).jackson());
+            }
+
+            List<RawJsonDocument> firstAfter = rawPersistence.readRawDocuments(tx, timestamp, namespace, "Address", Range.firstAfter(1, "newyork")).toList().blockingGet();
+            assertEquals(firstAfter.size(), 1);
+            assertEquals(firstAfter.get(0).key(), oslo.key());
+        }
+    }
+
+    @Test
+    public void thatProviderCodecKeepsFixturesIntact() {
+        DocumentCodecPersistence codecPersistence = Capabilities.require(persistence, DocumentCodecPersistence.class);
+        ZonedDateTime oct18 = of(2018, 10, 7, 19, 49, 26, (int) TimeUnit.MILLISECONDS.toNanos(307), ZoneId.of("Etc/UTC"));
+        try (Transaction transaction = persistence.createTransaction(false)) {
+            ObjectNode simple = createSimpleArrayPeople();
+            persistence.createOrOverwrite(transaction, toDocument(namespace, "People", "simple", simple, oct18), simpleArraySpecification()).blockingAwait();
+            JsonDocument simpleFromDb = persistence.readDocument(transaction, oct18, namespace, "People", "simple").blockingGet();
+            assertEquals(simpleFromDb.jackson().toString(), simple.toString());
+            assertStoredWithCodec(codecPersistence, transaction, oct18, "People", "simple", simple);
+
+            ObjectNode complex = createComplexArrayPeople();
+            persistence.createOrOverwrite(transaction, toDocument(namespace, "People", "complex", complex, oct18), complexArraySpecification()).blockingAwait();
+            JsonDocument complexFromDb = persistence.readDocument(transaction, oct18, namespace, "People", "complex").blockingGet();
+            assertEquals(complexFromDb.jackson().toString(), complex.toString());
+            assertStoredWithCodec(codecPersistence, transaction, oct18, "People", "complex", complex);
+
+            String bigString = createBigString();
+            persistence.deleteAllDocumentVersions(transaction, namespace, "FunkyLongAddress", "newyork", PersistenceDeletePolicy.FAIL_IF_INCOMING_LINKS).blockingAwait();
+            persistence.createOrOverwrite(transaction, toDocument(namespace, "FunkyLongAddress", "newyork", createAddress(bigString, "NY", "USA"), oct18), specification).blockingAwait();
+            Iterator<JsonDocument> iterator = persistence.findDocument(transaction, oct18, namespace, "FunkyLongAddress", JsonNavigationPath.from("$.city"), bigString, Range.unbounded()).blockingIterable().iterator();
+            assertTrue(iterator.hasNext());
+            assertEquals(iterator.next().jackson().get("city").textValue(), bigString);
+            assertFalse(iterator.hasNext());
+            assertStoredWithCodec(codecPersistence, transaction, oct18, "FunkyLongAddress", "newyork", createAddress(bigString, "NY", "USA"));
+            persistence.deleteAllDocumentVersions(transaction, namespace, "FunkyLongAddress", "newyork", PersistenceDeletePolicy.FAIL_IF_INCOMING_LINKS).blockingAwait();
+        }
+    }
+
+    private void assertStoredWithCodec(DocumentCodecPersistence codecPersistence, Transaction tx, ZonedDateTime snapshot, String entity, String id, JsonNode written) {
+        DocumentCodec codec = codecPersistence.documentCodec();
+        byte[] stored = codecPersistence.readStoredBytes(tx, snapshot, namespace, entity, id).blockingGet();
+        assertNotNull(stored, format("stored bytes of /%s/%s", entity, id));
+        assertEquals(stored, codec.encode(written), format("/%s/%s stored with %s", entity, id, codec.name()));
+        assertEquals(codec.decode(stored).toString(), written.toString());
+    }
+
+    static Map<String, JsonNode> codecFixtures() {
+        Map<String, JsonNode> fixtures = new LinkedHashMap<>();
+        fixtures.put("simple array", createSimpleArrayPeople());
+        fixtures.put("complex array", createComplexArrayPeople());
+        fixtures.put("person", createPerson("Jack", "Smith", "/Address/oslo", "/FunkyLongAddress/trondheim", List.of("/Address/london", "/Address/paris")));
+        fixtures.put("big value", createAddress(createBigString(), "NY", "USA"));
+        return fixtures;
+    }
+
+    @Test
+    public void thatCurrentVersionFollowsOutOfOrderWritesAndDeletes() {
+        CurrentVersionPersistence currentPersistence = Capabilities.require(persistence, CurrentVersionPersistence.class);
+        try (Transaction transaction = persistence.createTransaction(false)) {
+            persistence.deleteAllDocumentVersions(transaction, namespace, "Address", "newyork", PersistenceDeletePolicy.FAIL_IF_INCOMING_LINKS).blockingAwait();
+
+            ZonedDateTime jan1624 = of(1624, 1, 1, 12, 0, 0, (int) TimeUnit.MILLISECONDS.toNanos(0), ZoneId.of("Etc/UTC"));
+            ZonedDateTime jan1626 = of(1626, 1, 1, 12, 0, 0, (int) TimeUnit.MILLISECONDS.toNanos(0), ZoneId.of("Etc/UTC"));
+            ZonedDateTime feb1663 = of(1663, 2, 1, 0, 0, 0, (int) TimeUnit.MILLISECONDS.toNanos(0), ZoneId.of("Etc/UTC"));
+            ZonedDateTime jan1664 = of(1664, 1, 1, 12, 0, 0, (int) TimeUnit.MILLISECONDS.toNanos(0), ZoneId.of("Etc/UTC"));
+            ZonedDateTime feb1665 = of(1665, 2, 1, 0, 0, 0, (int) TimeUnit.MILLISECONDS.toNanos(0), ZoneId.of("Etc/UTC"));
+            JsonDocument input0 = toDocument(namespace, "Address", "newyork", createAddress("", "NY", "USA"), jan1624);
+            JsonDocument input2 = toDocument(namespace, "Address", "newyork", createAddress("New York", "NY", "USA"), jan1664);
+            JsonDocument input1a = toDocument(namespace, "Address", "newyork", createAddress("1a New Amsterdam", "NY", "USA"), jan1626);
+            JsonDocument input1b = toDocument(namespace, "Address", "newyork", createAddress("1b New Amsterdam", "NY", "USA"), jan1626);
+
+            persistence.createOrOverwrite(transaction, input0, specification).blockingAwait();
+            assertCurrentVersion(currentPersistence, transaction, "Address", "newyork", input0);
+            persistence.createOrOverwrite(transaction, input2, specification).blockingAwait();
+            assertCurrentVersion(currentPersistence, transaction, "Address", "newyork", input2);
+            persistence.createOrOverwrite(transaction, input1a, specification).blockingAwait();
+            persistence.createOrOverwrite(transaction, input1b, specification).blockingAwait();
+            assertCurrentVersion(currentPersistence, transaction, "Address", "newyork", input2);
+
+            JsonDocument input2b = toDocument(namespace, "Address", "newyork", createAddress("New York City", "NY", "USA"), jan1664);
+            persistence.createOrOverwrite(transaction, input2b, specification).blockingAwait();
+            assertCurrentVersion(currentPersistence, transaction, "Address", "newyork", input2b);
+
+            persistence.markDocumentDeleted(transaction, namespace, "Address", "newyork", feb1665, PersistenceDeletePolicy.FAIL_IF_INCOMING_LINKS).blockingAwait();
+            assertCurrentVersion(currentPersistence, transaction, "Address", "newyork", null);
+
+            persistence.deleteDocument(transaction, namespace, "Address", "newyork", feb1665, PersistenceDeletePolicy.FAIL_IF_INCOMING_LINKS).blockingAwait();
+            assertCurrentVersion(currentPersistence, transaction, "Address", "newyork", input2b);
+
+            persistence.markDocumentDeleted(transaction, namespace, "Address", "newyork", feb1663, PersistenceDeletePolicy.FAIL_IF_INCOMING_LINKS).blockingAwait();
+            assertCurrentVersion(currentPersistence, transaction, "Address", "newyork", input2b);
+
+            persistence.deleteDocument(transaction, namespace, "Address", "newyork", jan1664, PersistenceDeletePolicy.FAIL_IF_INCOMING_LINKS).blockingAwait();
+            assertCurrentVersion(currentPersistence, transaction, "Address", "newyork", null);
+
+            persistence.deleteAllDocumentVersions(transaction, namespace, "Address", "newyork", PersistenceDeletePolicy.FAIL_IF_INCOMING_LINKS).blockingAwait();
+            assertCurrentVersion(currentPersistence, transaction, "Address", "newyork", null);
+        }
+    }
+
+    @Test
+    public void thatReadCurrentDocumentsMatchesReadDocumentsNow() {
+        CurrentVersionPersistence currentPersistence = Capabilities.require(persistence, CurrentVersionPersistence.class);
+        ZonedDateTime timestamp = parse("2000-01-01T00:00:00.000Z");
+        try (Transaction tx = persistence.createTransaction(false)) {
+            persistence.deleteAllEntities(tx, namespace, "Person", specification).blockingAwait();
+
+            for (int i = 0; i < 6; i++) {
+                String id = format("person%02d", i);
+                for (int month = 12; month >= 1; month -= 1 + i % 3) {
+                    persistence.createOrOverwrite(tx, createPerson(id, timestamp.withMonth(month)), specification).blockingAwait();
+                }
+            }
+            persistence.markDocumentDeleted(tx, namespace, "Person", "person03", timestamp.withYear(2001),
+                    PersistenceDeletePolicy.FAIL_IF_INCOMING_LINKS).blockingAwait();
+
+            ZonedDateTime now = now(ZoneId.of("Etc/UTC"));
+            List<Range<String>> ranges = List.of(Range.unbounded(), Range.first(2), Range.firstAfter(2, "person02"), Range.last(2));
+            for (Range<String> range : ranges) {
+                assertEquals(currentPersistence.readCurrentDocuments(tx, namespace, "Person", range).map(JsonDocument::key).toList().blockingGet(),
+                        persistence.readDocuments(tx, now, namespace, "Person", range).map(JsonDocument::key).toList().blockingGet());
+            }
+            assertEquals(currentPersistence.readCurrentDocuments(tx, namespace, "Person", Range.unbounded()).count().blockingGet().longValue(), 5);
+
+            persistence.deleteAllEntities(tx, namespace, "Person", specification).blockingAwait();
+            assertEquals(currentPersistence.readCurrentDocuments(tx, namespace, "Person", Range.unbounded()).count().blockingGet().longValue(), 0);
+        }
+    }
+
+    private void assertCurrentVersion(CurrentVersionPersistence currentPersistence, Transaction tx, String entity, String id, JsonDocument expected) {
+        JsonDocument current = currentPersistence.readCurrentDocument(tx, namespace, entity, id).blockingGet();
+        JsonDocument atNow = persistence.readDocument(tx, now(ZoneId.of("Etc/UTC")), namespace, entity, id).blockingGet();
+        if (expected == null) {
+            assertNull(current, "current version");
+            assertNull(atNow, "version at now");
+            return;
+        }
+        assertNotNull(current, "current version");
+        assertEquals(current.key(), expected.key());
+        assertEquals(current.jackson(), expected.jackson());
+        assertEquals(current.key(), atNow.key());
+    }
+
+    @Test
+    public void thatChangeFeedIsOrderedPerDocument() {
+        ChangeFeedPersistence changeFeed = Capabilities.require(persistence, ChangeFeedPersistence.class);
+        ZonedDateTime jan1624 = of(1624, 1, 1, 12, 0, 0, (int) TimeUnit.MILLISECONDS.toNanos(0), ZoneId.of("Etc/UTC"));
+        ZonedDateTime jan1626 = of(1626, 1, 1, 12, 0, 0, (int) TimeUnit.MILLISECONDS.toNanos(0), ZoneId.of("Etc/UTC"));
+        ZonedDateTime feb1663 = of(1663, 2, 1, 0, 0, 0, (int) TimeUnit.MILLISECONDS.toNanos(0), ZoneId.of("Etc/UTC"));
+        ZonedDateTime jan1664 = of(1664, 1, 1, 12, 0, 0, (int) TimeUnit.MILLISECONDS.toNanos(0), ZoneId.of("Etc/UTC"));
+        JsonDocument input0 = toDocument(namespace, "Address", "newyork", createAddress("", "NY", "USA"), jan1624);
+        JsonDocument input2 = toDocument(namespace, "Address", "newyork", createAddress("New York", "NY", "USA"), jan1664);
+        JsonDocument input1a = toDocument(namespace, "Address", "newyork", createAddress("1a New Amsterdam", "NY", "USA"), jan1626);
+        JsonDocument input1b = toDocument(namespace, "Address", "newyork", createAddress("1b New Amsterdam", "NY", "USA"), jan1626);
+        JsonDocument boston = toDocument(namespace, "Address", "boston", createAddress("Boston", "MA", "USA"), jan1626);
+
+        long cursor;
+        try (Transaction tx = persistence.createTransaction(false)) {
+            persistence.deleteAllDocumentVersions(tx, namespace, "Address", "newyork", PersistenceDeletePolicy.FAIL_IF_INCOMING_LINKS).blockingAwait();
+            persistence.deleteAllDocumentVersions(tx, namespace, "Address", "boston", PersistenceDeletePolicy.FAIL_IF_INCOMING_LINKS).blockingAwait();
+        }
+        try (Transaction tx = persistence.createTransaction(true)) {
+            cursor = changeFeed.currentCursor(tx, namespace).blockingGet();
+        }
+        try (Transaction tx = persistence.createTransaction(false)) {
+            persistence.createOrOverwrite(tx, input0, specification).blockingAwait();
+            persistence.createOrOverwrite(tx, input2, specification).blockingAwait();
+            persistence.createOrOverwrite(tx, boston, specification).blockingAwait();
+            persistence.createOrOverwrite(tx, input1a, specification).blockingAwait();
+            persistence.createOrOverwrite(tx, input1b, specification).blockingAwait();
+            persistence.markDocumentDeleted(tx, namespace, "Address", "newyork", feb1663, PersistenceDeletePolicy.FAIL_IF_INCOMING_LINKS).blockingAwait();
+            persistence.deleteDocument(tx, namespace, "Address", "newyork", jan1624, PersistenceDeletePolicy.FAIL_IF_INCOMING_LINKS).blockingAwait();
+        }
+        try (Transaction tx = persistence.createTransaction(true)) {
+            List<ChangeEvent> changes = changeFeed.readChanges(tx, namespace, cursor).toList().blockingGet();
+            assertStrictlyIncreasingSequences(changes, cursor);
+
+            List<ChangeEvent> newyorkChanges = changes.stream()
+                    .filter(change -> change.key().entity().equals("Address") && change.key().id().equals("newyork"))
+                    .collect(Collectors.toList());
+            assertEquals(newyorkChanges.stream().map(ChangeEvent::type).collect(Collectors.toList()), List.of(
+                    ChangeEvent.Type.VERSION_WRITTEN, ChangeEvent.Type.VERSION_WRITTEN, ChangeEvent.Type.VERSION_WRITTEN,
+                    ChangeEvent.Type.VERSION_WRITTEN, ChangeEvent.Type.DELETE_MARKER, ChangeEvent.Type.VERSION_DELETED));
+            assertEquals(newyorkChanges.stream().map(ChangeEvent::key).collect(Collectors.toList()), List.of(
+                    input0.key(), input2.key(), input1a.key(), input1b.key(),
+                    new DocumentKey(namespace, "Address", "newyork", feb1663), input0.key()));
+            assertEquals(newyorkChanges.get(3).document().jackson(), input1b.jackson());
+            assertNull(newyorkChanges.get(4).document());
+            assertEquals(changes.stream().filter(change -> change.key().id().equals("boston")).count(), 1);
+
+            // Resuming from the middle of the feed gives exactly the remaining changes.
+            ChangeEvent resumeAfter = changes.get(2);
+            List<ChangeEvent> resumed = changeFeed.readChanges(tx, namespace, resumeAfter.sequence()).toList().blockingGet();
+            assertEquals(resumed.stream().map(ChangeEvent::sequence).collect(Collectors.toList()),
+                    changes.subList(3, changes.size()).stream().map(ChangeEvent::sequence).collect(Collectors.toList()));
+            assertEquals(changeFeed.currentCursor(tx, namespace).blockingGet().longValue(), changes.get(changes.size() - 1).sequence());
+        }
+    }
+
+    @Test
+    public void thatChangeFeedContainsCascadeDeletes() {
+        ChangeFeedPersistence changeFeed = Capabilities.require(persistence, ChangeFeedPersistence.class);
+        ZonedDateTime timestamp = parse("2019-01-01T00:00:00.000Z");
+        JsonDocument oslo = toDocument(namespace, "Address", "oslo", createAddress("Oslo", "", "Norway"), timestamp);
+        JsonDocument paris = toDocument(namespace, "Address", "paris", createAddress("Paris", "", "France"), timestamp);
+        JsonDocument jack = toDocument(namespace, "Person", "jack", createPerson("Jack", "Smith", "/Address/oslo", "/Address/paris", List.of()), timestamp);
+        JsonDocument jill = toDocument(namespace, "Person", "jill", createPerson("Jill", "Smith", "/Address/paris", "/Address/paris", List.of()), timestamp);
+
+        long cursor;
+        try (Transaction tx = persistence.createTransaction(false)) {
+            resetNamespace(tx);
+            persistence.createOrOverwrite(tx, Flowable.just(oslo, paris, jack, jill), specification).blockingAwait();
+        }
+        try (Transaction tx = persistence.createTransaction(true)) {
+            cursor = changeFeed.currentCursor(tx, namespace).blockingGet();
+        }
+        try (Transaction tx = persistence.createTransaction(false)) {
+            persistence.deleteAllDocumentVersions(tx, namespace, "Address", "oslo", PersistenceDeletePolicy.CASCADE_DELETE_ALL_INCOMING_LINKS_AND_NODES).blockingAwait();
+        }
+        try (Transaction tx = persistence.createTransaction(true)) {
+            List<ChangeEvent> changes = changeFeed.readChanges(tx, namespace, cursor).toList().blockingGet();
+            assertStrictlyIncreasingSequences(changes, cursor);
+            assertThat(changes).allMatch(change -> change.type() == ChangeEvent.Type.ALL_VERSIONS_DELETED);
+            assertThat(changes.stream().map(change -> "/" + change.key().entity() + "/" + change.key().id()).collect(Collectors.toList()))
+                    .containsExactlyInAnyOrder("/Address/oslo", "/Person/jack");
+        }
+    }
+
+    private void assertStrictlyIncreasingSequences(List<ChangeEvent> changes, long cursor) {
+        long previous = cursor;
+        for (ChangeEvent change : changes) {
+            assertTrue(change.sequence() > previous, format("sequence of %s is not after %d", change, previous));
+            previous = change.sequence();
+        }
+    }
+
+    @Test
+    public void thatCountsMatchStreamedResults() {
+        CountingPersistence counting = Capabilities.require(persistence, CountingPersistence.class);
+        try (Transaction transaction = persistence.createTransaction(false)) {
+            persistence.deleteAllEntities(transaction, namespace, "Person", specification).blockingAwait();
+
+            ZonedDateTime aug92 = of(1992, 8, 1, 13, 43, 20, (int) TimeUnit.MILLISECONDS.toNanos(301), ZoneId.of("Etc/UTC"));
+            ZonedDateTime sep94 = of(1994, 9, 1, 13, 43, 20, (int) TimeUnit.MILLISECONDS.toNanos(301), ZoneId.of("Etc/UTC"));
+            ZonedDateTime feb10 = of(2010, 2, 3, 15, 45, 22, (int) TimeUnit.MILLISECONDS.toNanos(303), ZoneId.of("Etc/UTC"));
+            ZonedDateTime dec11 = of(2011, 12, 4, 16, 46, 23, (int) TimeUnit.MILLISECONDS.toNanos(304), ZoneId.of("Etc/UTC"));
+            ZonedDateTime nov13 = of(2013, 11, 5, 17, 47, 24, (int) TimeUnit.MILLISECONDS.toNanos(305), ZoneId.of("Etc/UTC"));
+            ZonedDateTime sep18 = of(2018, 9, 6, 18, 48, 25, (int) TimeUnit.MILLISECONDS.toNanos(306), ZoneId.of("Etc/UTC"));
+            ZonedDateTime oct18 = of(2018, 10, 7, 19, 49, 26, (int) TimeUnit.MILLISECONDS.toNanos(307), ZoneId.of("Etc/UTC"));
+            persistence.createOrOverwrite(transaction, toDocument(namespace, "Person", "john", createPerson("John", "Smith"), aug92), specification).blockingAwait();
+            persistence.createOrOverwrite(transaction, toDocument(namespace, "Person", "jane", createPerson("Jane", "Doe"), sep94), specification).blockingAwait();
+            persistence.createOrOverwrite(transaction, toDocument(namespace, "Person", "jane", createPerson("Jane", "Smith"), feb10), specification).blockingAwait();
+            persistence.createOrOverwrite(transaction, toDocument(namespace, "Person", "john", createPerson("James", "Smith"), nov13), specification).blockingAwait();
+            persistence.createOrOverwrite(transaction, toDocument(namespace, "Person", "john", createPerson("John", "Smith"), oct18), specification).blockingAwait();
+            persistence.markDocumentDeleted(transaction, namespace, "Person", "jane", sep18, PersistenceDeletePolicy.FAIL_IF_INCOMING_LINKS).blockingAwait();
+
+            for (ZonedDateTime snapshot : List.of(aug92, sep94, dec11, sep18, oct18)) {
+                assertEquals(counting.countDocuments(transaction, snapshot, namespace, "Person").blockingGet().longValue(),
+                        size(persistence.readDocuments(transaction, snapshot, namespace, "Person", Range.unbounded()).blockingIterable().iterator()),
+                        format("countDocuments at %s", snapshot));
+                for (String lastname : List.of("Smith", "Doe", "Nobody")) {
+                    JsonNavigationPath path = JsonNavigationPath.from("$.lastname");
+                    assertEquals(counting.countFindDocument(transaction, snapshot, namespace, "Person", path, lastname).blockingGet().longValue(),
+                            size(persistence.findDocument(transaction, snapshot, namespace, "Person", path, lastname, Range.unbounded()).blockingIterable().iterator()),
+                            format("countFindDocument of %s at %s", lastname, snapshot));
+                }
+                for (String id : List.of("john", "jane", "jim")) {
+                    assertEquals(counting.exists(transaction, snapshot, namespace, "Person", id).blockingGet().booleanValue(),
+                            persistence.readDocument(transaction, snapshot, namespace, "Person", id).blockingGet() != null,
+                            format("exists %s at %s", id, snapshot));
+                }
+            }
+
+            assertEquals(counting.countDocumentVersions(transaction, namespace, "Person", "john").blockingGet().longValue(), 3);
+            assertEquals(counting.countDocumentVersions(transaction, namespace, "Person", "jane").blockingGet().longValue(), 3);
+            assertEquals(counting.countDocumentVersions(transaction, namespace, "Person", "jim").blockingGet().longValue(), 0);
+
+            persistence.deleteDocument(transaction, namespace, "Person", "jane", sep18, PersistenceDeletePolicy.FAIL_IF_INCOMING_LINKS).blockingAwait();
+            assertEquals(counting.countDocumentVersions(transaction, namespace, "Person", "jane").blockingGet().longValue(),
+                    size(persistence.readDocumentVersions(transaction, namespace, "Person", "jane", Range.unbounded()).blockingIterable().iterator()));
+            assertEquals(counting.countDocuments(transaction, oct18, namespace, "Person").blockingGet().longValue(), 2);
+
+            persistence.deleteAllEntities(transaction, namespace, "Person", specification).blockingAwait();
+            assertEquals(counting.countDocuments(transaction, oct18, namespace, "Person").blockingGet().longValue(), 0);
+            assertEquals(counting.countDocumentVersions(transaction, namespace, "Person", "john").blockingGet().longValue(), 0);
+            assertFalse(counting.exists(transaction, oct18, namespace, "Person", "john").blockingGet());
+        }
+    }
+
+    @Test
+    public void thatProjectedDocumentsMatchProjectionOfFullDocuments() {
+        ProjectingPersistence projecting = Capabilities.require(persistence, ProjectingPersistence.class);
+        ZonedDateTime timestamp = parse("2019-01-01T00:00:00.000Z");
+
+        try (Transaction tx = persistence.createTransaction(false)) {
+            resetNamespace(tx);
+
+            persistence.createOrOverwrite(tx, Flowable.just(
+                    toDocument(namespace, "Address", "oslo", createAddress("Oslo", "", "Norway"), timestamp),
+                    toDocument(namespace, "FunkyLongAddress", "newyork", createAddress(createBigString(), "NY", "USA"), timestamp),
+                    toDocument(namespace, "Person", "jack", createPerson("Jack", "Smith", "/Address/oslo", "/FunkyLongAddress/newyork", List.of("/Address/oslo", "/FunkyLongAddress/newyork")), timestamp),
+                    toDocument(namespace, "Person", "jill", createPerson("Jill", "Smith", "/FunkyLongAddress/newyork", "/Address/oslo", List.of()), timestamp),
+                    toDocument(namespace, "Person", "jane", createPerson("Jane", "Doe"), timestamp)
+            ), specification).blockingAwait();
+
+            List<Set<JsonNavigationPath>> projections = List.of(
+                    Set.of(JsonNavigationPath.from("$.firstname"), JsonNavigationPath.from("$.lastname")),
+                    Set.of(JsonNavigationPath.from("$.history.currentAddress")),
+                    Set.of(JsonNavigationPath.from("$.history.previousAddresses[]")),
+                    Set.of(JsonNavigationPath.from("$.history.*")),
+                    Set.of(JsonNavigationPath.from("$.history"), JsonNavigationPath.from("$.born")),
+                    Set.of(JsonNavigationPath.from("$.doesNotExist"))
+            );
+            JsonNavigationPath lastname = JsonNavigationPath.from("$.lastname");
+            for (Set<JsonNavigationPath> projection : projections) {
+                assertProjected(projecting.readDocuments(tx, timestamp, namespace, "Person", Range.unbounded(), projection),
+                        persistence.readDocuments(tx, timestamp, namespace, "Person", Range.unbounded()), projection);
+                assertProjected(projecting.readDocuments(tx, timestamp, namespace, "Person", Range.firstAfter(1, "jane"), projection),
+                        persistence.readDocuments(tx, timestamp, namespace, "Person", Range.firstAfter(1, "jane")), projection);
+                assertProjected(projecting.findDocument(tx, timestamp, namespace, "Person", lastname, "Smith", Range.unbounded(), projection),
+                        persistence.findDocument(tx, timestamp, namespace, "Person", lastname, "Smith", Range.unbounded()), projection);
+            }
+
+            Set<JsonNavigationPath> country = Set.of(JsonNavigationPath.from("$.country"));
+            List<JsonDocument> funky = projecting.readDocuments(tx, timestamp, namespace, "FunkyLongAddress", Range.unbounded(), country).toList().blockingGet();
+            assertEquals(funky.size(), 1);
+            assertEquals(funky.get(0).jackson(), mapper.createObjectNode().put("country", "USA"));
+        }
+
+        try (Transaction tx = persistence.createTransaction(false)) {
+            ZonedDateTime oct18 = of(2018, 10, 7, 19, 49, 26, (int) TimeUnit.MILLISECONDS.toNanos(307), ZoneId.of("Etc/UTC"));
+            persistence.createOrOverwrite(tx, toDocument(namespace, "People", "projected", createComplexArrayPeople(), oct18), complexArraySpecification()).blockingAwait();
+            Set<JsonNavigationPath> firstNames = Set.of(JsonNavigationPath.from("$.name[].first"));
+            List<JsonDocument> people = projecting.readDocuments(tx, oct18, namespace, "People", Range.firstBetween(1, "pro", "pru"), firstNames).toList().blockingGet();
+            assertEquals(people.size(), 1);
+            assertEquals(people.get(0).jackson(), JsonProjection.project(createComplexArrayPeople(), firstNames));
+            assertEquals(people.get(0).jackson().toString(), "{\"name\":[{\"first\":\"John\"},{\"first\":\"Jane\"}]}");
+
+            // Absent paths and array elements that are not objects leave no trace in the projection.
+            Set<JsonNavigationPath> currentAddress = Set.of(JsonNavigationPath.from("$.history.currentAddress"));
+            assertEquals(JsonProjection.project(createPerson("Jane", "Doe"), currentAddress), mapper.createObjectNode());
+            assertEquals(JsonProjection.project(createPerson("Jane", "Doe").set("history", mapper.createObjectNode()), currentAddress), mapper.createObjectNode());
+            assertEquals(JsonProjection.project(createSimpleArrayPeople(), firstNames), mapper.createObjectNode());
+        }
+    }
+
+    private void assertProjected(Flowable<JsonDocument> projected, Flowable<JsonDocument> full, Set<JsonNavigationPath> projection) {
+        List<JsonDocument> actual = projected.toList().blockingGet();
+        List<JsonDocument> expected = full.toList().blockingGet();
+        assertEquals(actual.stream().map(JsonDocument::key).collect(Collectors.toList()),
+                expected.stream().map(JsonDocument::key).collect(Collectors.toList()), format("keys with projection %s", projection));
+        for (int i = 0; i < actual.size(); i++) {
+            assertEquals(actual.get(i).jackson(), JsonProjection.project(expected.get(i).jackson(), projection),
+                    format("%s with projection %s", actual.get(i).key(), projection));
+        }
+    }
+
+    @Test
+    public void thatFilteredFindMatchesReferenceFilter() {
+        FilteringPersistence filtering = Capabilities.require(persistence, FilteringPersistence.class);
+        ZonedDateTime timestamp = parse("2019-01-01T00:00:00.000Z");
+        List<String> firstnames = List.of("Jack", "Jill", "Jane", "Jones", "James");
+        List<String> lastnames = List.of("Smith", "Smithson", "Doe");
+
+        try (Transaction tx = persistence.createTransaction(false)) {
+            persistence.deleteAllEntities(tx, namespace, "Person", specification).blockingAwait();
+            for (int i = 0; i < 15; i++) {
+                ObjectNode person = createPerson(firstnames.get(i % firstnames.size()), lastnames.get(i % lastnames.size()));
+                person.put("born", 1980 + i * 3);
+                person.put("bornWeightKg", 2.5 + i * 0.2);
+                person.put("isHuman", i % 4 != 0);
+                persistence.createOrOverwrite(tx, toDocument(namespace, "Person", format("person%02d", i), person, timestamp), specification).blockingAwait();
+            }
+
+            JsonNavigationPath firstname = JsonNavigationPath.from("$.firstname");
+            JsonNavigationPath lastname = JsonNavigationPath.from("$.lastname");
+            JsonNavigationPath born = JsonNavigationPath.from("$.born");
+            JsonNavigationPath bornWeightKg = JsonNavigationPath.from("$.bornWeightKg");
+            JsonNavigationPath isHuman = JsonNavigationPath.from("$.isHuman");
+            List<DocumentFilter> filters = List.of(
+                    DocumentFilter.eq(lastname, "Smith"),
+                    DocumentFilter.eq(born, 1995),
+                    DocumentFilter.gt(born, 1995),
+                    DocumentFilter.gte(born, 1995),
+                    DocumentFilter.lt(bornWeightKg, 3.1),
+                    DocumentFilter.lte(bornWeightKg, 3.1),
+                    DocumentFilter.between(born, 1986, 2001),
+                    DocumentFilter.startsWith(lastname, "Smith"),
+                    DocumentFilter.startsWith(firstname, "J"),
+                    DocumentFilter.startsWith(firstname, "X"),
+                    DocumentFilter.and(DocumentFilter.eq(lastname, "Smith"), DocumentFilter.eq(isHuman, true)),
+                    DocumentFilter.and(DocumentFilter.startsWith(firstname, "Ja"), DocumentFilter.gte(bornWeightKg, 3.5), DocumentFilter.lt(born, 2020)),
+                    DocumentFilter.or(DocumentFilter.eq(firstname, "Jill"), DocumentFilter.gt(born, 2015)),
+                    DocumentFilter.or(DocumentFilter.and(DocumentFilter.eq(lastname, "Doe"), DocumentFilter.lt(born, 1990)),
+                            DocumentFilter.and(DocumentFilter.eq(lastname, "Smithson"), DocumentFilter.gt(bornWeightKg, 4.0)))
+            );
+
+            List<JsonDocument> all = persistence.readDocuments(tx, timestamp, namespace, "Person", Range.unbounded()).toList().blockingGet();
+            for (DocumentFilter filter : filters) {
+                List<DocumentKey> expected = all.stream().filter(document -> filter.test(document.jackson())).map(JsonDocument::key).collect(Collectors.toList());
+                assertEquals(filtering.findDocuments(tx, timestamp, namespace, "Person", filter, Range.unbounded()).map(JsonDocument::key).toList().blockingGet(),
+                        expected, filter.toString());
+                assertEquals(filtering.findDocuments(tx, timestamp, namespace, "Person", filter, Range.first(2)).map(JsonDocument::key).toList().blockingGet(),
+                        expected.subList(0, Math.min(2, expected.size())), filter + " with first(2)");
+
+                // The answer depends on the filter only, and an OR can only use indexes if all of its operands can.
+                boolean indexBacked = filtering.isIndexBacked(namespace, "Person", filter);
+                assertEquals(filtering.isIndexBacked(namespace, "Person", filter), indexBacked, filter + " index backed");
+                if (indexBacked && filter.operator() == DocumentFilter.Operator.OR) {
+                    for (DocumentFilter operand : filter.operands()) {
+                        assertTrue(filtering.isIndexBacked(namespace, "Person", operand), operand + " of index backed " + filter);
+                    }
+                }
+            }
+            assertEquals(filtering.isIndexBacked(namespace, "Person", DocumentFilter.eq(lastname, "Doe")),
+                    filtering.isIndexBacked(namespace, "Person", DocumentFilter.eq(lastname, "Smith")), "EQ on $.lastname index backed for any value");
+
+            assertEquals(filtering.findDocuments(tx, timestamp, namespace, "Person", DocumentFilter.eq(lastname, "Smith"), Range.unbounded()).map(JsonDocument::key).toList().blockingGet(),
+                    persistence.findDocument(tx, timestamp, namespace, "Person", lastname, "Smith", Range.unbounded()).map(JsonDocument::key).toList().blockingGet());
+        }
+    }
+
+    @Test
+    public void thatTraverseLinksMatchesReadLinkedDocumentsPerHop() throws JSONException {
+        TraversingPersistence traversing = Capabilities.require(persistence, TraversingPersistence.class);
+        Specification specification = departmentSpecification();
+        ZonedDateTime timestamp = parse("2019-01-01T00:00:00.000Z");
+
+        try (Transaction tx = persistence.createTransaction(false)) {
+            resetNamespace(tx, specification);
+
+            List<String> links = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                persistence.createOrOverwrite(tx, toDocument(namespace, "Address", "address" + i, createAddress("city " + i, "", "Country " + i), timestamp), specification).blockingAwait();
+                links.add("/Address/address" + i);
+            }
+            for (int i = 0; i < 2; i++) {
+                persistence.createOrOverwrite(tx, toDocument(namespace, "FunkyLongAddress", "funky" + i, createAddress("funky " + i, "", "Somewhere " + i), timestamp), specification).blockingAwait();
+                links.add("/FunkyLongAddress/funky" + i);
+            }
+            Set<String> personIds = new LinkedHashSet<>();
+            for (int i = 0; i < 8; i++) {
+                String id = "person" + i;
+                persistence.createOrOverwrite(tx, toDocument(namespace, "Person", id, createPerson("Jack " + i, "Smith",
+                        links.get(i % links.size()), links.get((i + 1) % links.size()), links.subList(0, i % links.size())), timestamp), specification).blockingAwait();
+                personIds.add(id);
+            }
+            Set<String> departmentIds = new LinkedHashSet<>();
+            for (int i = 0; i < 3; i++) {
+                String id = "department" + i;
+                ObjectNode department = mapper.createObjectNode().put("name", "Department " + i).put("head", "/Person/person" + (i * 3));
+                persistence.createOrOverwrite(tx, toDocument(namespace, "Department", id, department, timestamp), specification).blockingAwait();
+                departmentIds.add(id);
+            }
+
+            JsonNavigationPath head = JsonNavigationPath.from("$.head");
+            JsonNavigationPath currentAddress = JsonNavigationPath.from("$.history.currentAddress");
+            JsonNavigationPath workAddress = JsonNavigationPath.from("$.history.workAddress");
+            JsonNavigationPath previousAddresses = JsonNavigationPath.from("$.history.previousAddresses[]");
+
+            assertTraversal(traversing, tx, timestamp, "Person", personIds, List.of(currentAddress), specification);
+            assertTraversal(traversing, tx, timestamp, "Person", Set.of("person1", "person2"), List.of(workAddress), specification);
+            assertTraversal(traversing, tx, timestamp, "Person", personIds, List.of(previousAddresses), specification);
+            assertTraversal(traversing, tx, timestamp, "Department", departmentIds, List.of(head), specification);
+            assertTraversal(traversing, tx, timestamp, "Department", departmentIds, List.of(head, previousAddresses), specification);
+            assertTraversal(traversing, tx, timestamp, "Department", Set.of("department1", "unknown"), List.of(head, currentAddress), specification);
+            assertTraversal(traversing, tx, timestamp, "Person", Set.of(), List.of(currentAddress), specification);
+
+            assertEquals(traversing.traverseLinks(tx, timestamp, namespace, "Department", departmentIds, List.of(), specification)
+                    .map(JsonDocument::key).toList().blockingGet().size(), departmentIds.size());
+
+            persistence.deleteAllEntities(tx, namespace, "Department", specification).blockingAwait();
+        }
+    }
+
+    private void assertTraversal(TraversingPersistence traversing, Transaction tx, ZonedDateTime timestamp, String entity, Set<String> ids,
+                                 List<JsonNavigationPath> hops, Specification specification) throws JSONException {
+        List<JsonDocument> actual = traversing.traverseLinks(tx, timestamp, namespace, entity, ids, hops, specification).toList().blockingGet();
+        List<JsonDocument> expected = LinkTraversal.traverseLinks(persistence, tx, timestamp, namespace, entity, ids, hops, specification);
+        String description = format("traversal of %s %s along %s", entity, ids, hops.stream().map(JsonNavigationPath::serialize).collect(Collectors.toList()));
+        assertThat(actual.stream().map(JsonDocument::key).collect(Collectors.toList()))
+                .as(description)
+                .doesNotHaveDuplicates()
+                .containsExactlyInAnyOrderElementsOf(expected.stream().map(JsonDocument::key).collect(Collectors.toList()));
+        Map<DocumentKey, JsonDocument> expectedByKey = expected.stream().collect(Collectors.toMap(JsonDocument::key, document -> document));
+        for (JsonDocument document : actual) {
+            JSONAssert.assertEquals(expectedByKey.get(document.key()).jackson().toString(), document.jackson().toString(), true);
+        }
+    }
+
+    @Test
+    public void thatMetricsTrackTransactionLifecycle() {
+        PersistenceMetrics metrics = Capabilities.require(persistence, MeasurablePersistence.class).metrics();
+        long completedBefore = metrics.completedTransactions();
+        int openBefore = metrics.openTransactions();
+        try (Transaction tx = persistence.createTransaction(true)) {
+            assertEquals(metrics.openTransactions(), openBefore + 1);
+            persistence.readDocuments(tx, now(ZoneId.of("Etc/UTC")), namespace, "Person", Range.first(1)).blockingSubscribe();
+        }
+        assertTrue(awaitRelease(() -> metrics.openTransactions() == openBefore && metrics.completedTransactions() > completedBefore), metrics.describe());
+        assertTrue(metrics.longestTransactionTime().compareTo(metrics.totalTransactionTime()) <= 0, metrics.describe());
+    }
+
+    @Test
+    public void thatInjectedFaultsAreDeterministicPerSeed() {
+        ZonedDateTime timestamp = parse("2019-01-01T00:00:00.000Z");
+        try (Transaction tx = persistence.createTransaction(false)) {
+            persistence.createOrOverwrite(tx, toDocument(namespace, "Address", "faulty", createAddress("Faulty", "", "Nowhere"), timestamp), specification).blockingAwait();
+            List<List<Boolean>> outcomes = new ArrayList<>();
+            for (int run = 0; run < 2; run++) {
+                FaultInjectingPersistence faulty = new FaultInjectingPersistence(persistence, 42)
+                        .failures(FaultInjectingPersistence.Operation.READ_DOCUMENT, 0.5);
+                List<Boolean> failed = new ArrayList<>();
+                for (int i = 0; i < 50; i++) {
+                    failed.add(faulty.readDocument(tx, timestamp, namespace, "Address", "faulty").isEmpty().onErrorReturnItem(true).blockingGet());
+                }
+                outcomes.add(failed);
+            }
+            assertEquals(outcomes.get(0), outcomes.get(1));
+            assertThat(outcomes.get(0)).contains(true, false);
+            persistence.deleteAllDocumentVersions(tx, namespace, "Address", "faulty", PersistenceDeletePolicy.FAIL_IF_INCOMING_LINKS).blockingAwait();
+        }
+    }
+
+    @Test
+    public void thatRetryRecoversFromInjectedFailuresUnderLoad() {
+        ZonedDateTime timestamp = parse("2019-01-01T00:00:00.000Z");
+        JsonDocument address = toDocument(namespace, "Address", "faulty", createAddress("Faulty", "", "Nowhere"), timestamp);
+        try (Transaction tx = persistence.createTransaction(false)) {
+            persistence.createOrOverwrite(tx, address, specification).blockingAwait();
+        }
+        FaultInjectingPersistence faulty = new FaultInjectingPersistence(persistence, 7)
+                .failures(FaultInjectingPersistence.Operation.READ_DOCUMENT, 0.3)
+                .latency(FaultInjectingPersistence.Operation.READ_DOCUMENT, Duration.ofMillis(5), 0.5);
+        List<JsonDocument> documents = Flowable.range(0, 200)
+                .flatMapMaybe(i -> Maybe.using(
+                        () -> persistence.createTransaction(true),
+                        tx -> faulty.readDocument(tx, timestamp, namespace, "Address", "faulty").retry(20),
+                        Transaction::close
+                ).subscribeOn(Schedulers.io()), false, Integer.getInteger("lds.test.concurrency", 8))
+                .toList().blockingGet();
+        assertEquals(documents.size(), 200);
+        assertThat(documents).allMatch(document -> document.jackson().equals(address.jackson()));
+        try (Transaction tx = persistence.createTransaction(false)) {
+            persistence.deleteAllDocumentVersions(tx, namespace, "Address", "faulty", PersistenceDeletePolicy.FAIL_IF_INCOMING_LINKS).blockingAwait();
+        }
+    }
+
+    @Test
+    public void thatTimeoutsAndCancellationBoundInjectedLatency() {
+        ZonedDateTime timestamp = parse("2019-01-01T00:00:00.000Z");
+        FaultInjectingPersistence faulty = new FaultInjectingPersistence(persistence, 3)
+                .latency(FaultInjectingPersistence.Operation.READ_LINKED_DOCUMENTS, Duration.ofSeconds(30), 1.0)
+                .slowCommits(Duration.ofSeconds(30));
+        long start = System.nanoTime();
+        long timeouts = Flowable.range(0, 100)
+                .flatMapSingle(i -> Single.using(
+                        () -> persistence.createTransaction(true),
+                        tx -> faulty.readLinkedDocuments(tx, timestamp, namespace, "Person", "jack", JsonNavigationPath.from("$.history.currentAddress"), "Address", Range.unbounded())
+                                .count()
+                                .timeout(100, TimeUnit.MILLISECONDS)
+                                .map(count -> false)
+                                .onErrorReturn(e -> e instanceof TimeoutException),
+                        Transaction::close
+                ), false, Integer.getInteger("lds.test.concurrency", 8))
+                .filter(timedOut -> timedOut)
+                .count().blockingGet();
+        assertEquals(timeouts, 100);
+
+        // The write completes at once, the commit is delayed.
+        Transaction slow = faulty.createTransaction(false);
+        faulty.createOrOverwrite(slow, toDocument(namespace, "Address", "faulty", createAddress("Faulty", "", "Nowhere"), timestamp), specification)
+                .timeout(1, TimeUnit.SECONDS)
+                .blockingAwait();
+        CompletableFuture<TransactionStatistics> commit = slow.commit();
+        assertThatThrownBy(() -> commit.get(100, TimeUnit.MILLISECONDS)).isInstanceOf(TimeoutException.class);
+        try (Transaction tx = persistence.createTransaction(false)) {
+            persistence.deleteAllDocumentVersions(tx, namespace, "Address", "faulty", PersistenceDeletePolicy.FAIL_IF_INCOMING_LINKS).blockingAwait();
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 10, "timeouts did not cancel injected latency");
+    }
+
+    @Test
+    public void thatPartialStreamFailuresArePropagated() {
+        ZonedDateTime timestamp = parse("2000-01-01T00:00:00.000Z");
+        try (Transaction tx = persistence.createTransaction(false)) {
+            persistence.deleteAllEntities(tx, namespace, "Person", specification).blockingAwait();
+            for (int i = 0; i < 5; i++) {
+                persistence.createOrOverwrite(tx, createPerson(format("person%02d", i), timestamp), specification).blockingAwait();
+            }
+            FaultInjectingPersistence faulty = new FaultInjectingPersistence(persistence, 1)
+                    .failAfter(FaultInjectingPersistence.Operation.READ_DOCUMENTS, 3);
+            List<String> received = new ArrayList<>();
+            Throwable error = faulty.readDocuments(tx, timestamp, namespace, "Person", Range.unbounded())
+                    .doOnNext(document -> received.add(document.key().id()))
+                    .ignoreElements()
+                    .blockingGet();
+            assertTrue(error instanceof FaultInjectingPersistence.InjectedFaultException, String.valueOf(error));
+            assertEquals(received, List.of("person00", "person01", "person02"));
+
+            // A stream shorter than the limit completes normally.
+            assertEquals(faulty.readDocuments(tx, timestamp, namespace, "Person", Range.first(2)).map(document -> document.key().id()).toList().blockingGet(),
+                    List.of("person00", "person01"));
+            persistence.deleteAllEntities(tx, namespace, "Person", specification).blockingAwait();
+        }
+    }
+
+    @Test
+    public void thatWarmupIsRepeatableAndLeavesDataIntact() {
+        WarmablePersistence warmable = Capabilities.require(persistence, WarmablePersistence.class);
+        ZonedDateTime timestamp = parse("2019-01-01T00:00:00.000Z");
+        JsonDocument oslo = toDocument(namespace, "Address", "warmup", createAddress("Oslo", "", "Norway"), timestamp);
+        try (Transaction tx = persistence.createTransaction(false)) {
+            persistence.createOrOverwrite(tx, oslo, specification).blockingAwait();
+        }
+        warmable.warmup(namespace, specification).blockingAwait();
+        warmable.warmup(namespace, specification).blockingAwait();
+        try (Transaction tx = persistence.createTransaction(false)) {
+            JsonDocument osloFromDb = persistence.readDocument(tx, timestamp, namespace, "Address", "warmup").blockingGet();
+            assertNotNull(osloFromDb);
+            assertEquals(osloFromDb.jackson(), oslo.jackson());
+            assertEquals(size(persistence.readDocumentVersions(tx, namespace, "Address", "warmup", Range.unbounded()).blockingIterable().iterator()), 1);
+            persistence.deleteAllDocumentVersions(tx, namespace, "Address", "warmup", PersistenceDeletePolicy.FAIL_IF_INCOMING_LINKS).blockingAwait();
+        }
+    }
+
+    @Test
+    public void thatVersionReadsAreUnchangedAcrossTierBoundary() {
+        TieredPersistence tiered = Capabilities.require(persistence, TieredPersistence.class);
+        ZonedDateTime timestamp = parse("2000-01-01T00:00:00.000Z");
+        ZonedDateTime aug92 = parse("1992-08-01T13:43:20.301Z");
+        ZonedDateTime nov13 = parse("2013-11-05T17:47:24.305Z");
+        ZonedDateTime oct18 = parse("2018-10-07T19:49:26.307Z");
+        List<Range<ZonedDateTime>> ranges = List.of(Range.unbounded(), Range.first(3), Range.firstAfter(3, timestamp.withMonth(3)),
+                Range.firstBetween(2, timestamp.withMonth(6), timestamp.withMonth(10)), Range.last(3), Range.lastBefore(3, timestamp.withMonth(10)),
+                Range.lastBetween(2, timestamp.withMonth(2), timestamp.withMonth(8)), Range.between(parse("2010-02-03T15:45:22.303Z"), parse("2018-09-06T18:48:25.306Z")));
+        List<ZonedDateTime> snapshots = new ArrayList<>(List.of(aug92, nov13, oct18, timestamp.minusDays(1), timestamp.withYear(2001)));
+        for (int month = 1; month <= 12; month++) {
+            snapshots.add(timestamp.withMonth(month));
+            snapshots.add(timestamp.withMonth(month).withDayOfMonth(15));
+        }
+        try (Transaction tx = persistence.createTransaction(false)) {
+            resetNamespace(tx);
+            for (int month = 1; month <= 12; month++) {
+                persistence.createOrOverwrite(tx, createPersonVersion(timestamp.withMonth(month)), specification).blockingAwait();
+            }
+            persistence.createOrOverwrite(tx, toDocument(namespace, "Person", "john", createPerson("John", "Smith"), aug92), specification).blockingAwait();
+            persistence.createOrOverwrite(tx, toDocument(namespace, "Person", "john", createPerson("James", "Smith"), nov13), specification).blockingAwait();
+            persistence.createOrOverwrite(tx, toDocument(namespace, "Person", "john", createPerson("John", "Smith"), oct18), specification).blockingAwait();
+
+            Map<String, List<JsonNode>> expected = readVersionsAndSnapshots(tx, ranges, snapshots);
+            assertEquals(size(persistence.readDocumentVersions(tx, namespace, "Person", "john", Range.between(parse("2010-02-03T15:45:22.303Z"),
+                    parse("2018-09-06T18:48:25.306Z"))).blockingIterable().iterator()), 1);
+
+            // Months 1 to 6 of person00, June being superseded exactly at the threshold. The aug92 version of john is
+            // in effect until nov13 and stays hot.
+            assertEquals(tiered.tierVersionsBefore(tx, namespace, timestamp.withMonth(7)).blockingGet(), Long.valueOf(6));
+            assertTrue(tiered.storageSize(tx, namespace).blockingGet().coldBytes() > 0);
+            assertEquals(readVersionsAndSnapshots(tx, ranges, snapshots), expected);
+
+            // Everything but the latest versions.
+            tiered.tierVersionsBefore(tx, namespace, parse("2019-01-01T00:00:00.000Z")).blockingGet();
+            assertEquals(readVersionsAndSnapshots(tx, ranges, snapshots), expected);
+
+            persistence.deleteAllDocumentVersions(tx, namespace, "Person", "person00", PersistenceDeletePolicy.FAIL_IF_INCOMING_LINKS).blockingAwait();
+            persistence.deleteAllDocumentVersions(tx, namespace, "Person", "john", PersistenceDeletePolicy.FAIL_IF_INCOMING_LINKS).blockingAwait();
+        }
+    }
+
+    @Test
+    public void thatWritesAndDeletesReachTheColdTier() {
+        TieredPersistence tiered = Capabilities.require(persistence, TieredPersistence.class);
+        ZonedDateTime timestamp = parse("2000-01-01T00:00:00.000Z");
+        try (Transaction tx = persistence.createTransaction(false)) {
+            persistence.deleteAllDocumentVersions(tx, namespace, "Person", "person00", PersistenceDeletePolicy.FAIL_IF_INCOMING_LINKS).blockingAwait();
+            for (int month = 1; month <= 12; month += 2) {
+                persistence.createOrOverwrite(tx, createPersonVersion(timestamp.withMonth(month)), specification).blockingAwait();
+            }
+            tiered.tierVersionsBefore(tx, namespace, timestamp.withMonth(12)).blockingGet();
+
+            // Out of order write into the cold range.
+            JsonDocument february = createPersonVersion(timestamp.withMonth(2));
+            persistence.createOrOverwrite(tx, february, specification).blockingAwait();
+            assertEquals(persistence.readDocument(tx, timestamp.withMonth(2).withDayOfMonth(15), namespace, "Person", "person00").blockingGet().jackson(),
+                    february.jackson());
+            assertEquals(size(persistence.readDocumentVersions(tx, namespace, "Person", "person00", Range.unbounded()).blockingIterable().iterator()), 7);
+
+            persistence.deleteDocument(tx, namespace, "Person", "person00", timestamp.withMonth(3), PersistenceDeletePolicy.FAIL_IF_INCOMING_LINKS).blockingAwait();
+            assertEquals(persistence.readDocument(tx, timestamp.withMonth(4), namespace, "Person", "person00").blockingGet().jackson(), february.jackson());
+
+            persistence.markDocumentDeleted(tx, namespace, "Person", "person00", timestamp.withMonth(6), PersistenceDeletePolicy.FAIL_IF_INCOMING_LINKS).blockingAwait();
+            assertNull(persistence.readDocument(tx, timestamp.withMonth(6).withDayOfMonth(15), namespace, "Person", "person00").blockingGet());
+
+            persistence.deleteAllDocumentVersions(tx, namespace, "Person", "person00", PersistenceDeletePolicy.FAIL_IF_INCOMING_LINKS).blockingAwait();
+            assertEquals(size(persistence.readDocumentVersions(tx, namespace, "Person", "person00", Range.unbounded()).blockingIterable().iterator()), 0);
+            assertNull(persistence.readDocument(tx, timestamp.withMonth(2), namespace, "Person", "person00").blockingGet());
+        }
+    }
+
+    private Map<String, List<JsonNode>> readVersionsAndSnapshots(Transaction tx, List<Range<ZonedDateTime>> ranges, List<ZonedDateTime> snapshots) {
+        Map<String, List<JsonNode>> result = new LinkedHashMap<>();
+        for (String id : List.of("person00", "john")) {
+            for (Range<ZonedDateTime> range : ranges) {
+                result.put(id + " versions " + range, persistence.readDocumentVersions(tx, namespace, "Person", id, range)
+                        .map(JsonDocument::jackson).toList().blockingGet());
+            }
+            for (ZonedDateTime snapshot : snapshots) {
+                result.put(id + " at " + snapshot, persistence.readDocument(tx, snapshot, namespace, "Person", id)
+                        .map(JsonDocument::jackson).toFlowable().toList().blockingGet());
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void thatCreateIfChangedSkipsUnchangedContent() {
+        DeduplicatingPersistence deduplicating = Capabilities.require(persistence, DeduplicatingPersistence.class);
+        ZonedDateTime timestamp = parse("2000-01-01T00:00:00.000Z");
+        try (Transaction tx = persistence.createTransaction(false)) {
+            persistence.deleteAllDocumentVersions(tx, namespace, "Person", "john", PersistenceDeletePolicy.FAIL_IF_INCOMING_LINKS).blockingAwait();
+
+            JsonDocument january = toDocument(namespace, "Person", "john", createPerson("John", "Smith"), timestamp.withMonth(1));
+            assertTrue(deduplicating.createIfChanged(tx, january, specification).blockingGet());
+            assertFalse(deduplicating.createIfChanged(tx, toDocument(namespace, "Person", "john", createPerson("John", "Smith"), timestamp.withMonth(2)),
+                    specification).blockingGet());
+            assertEquals(persistence.readDocumentVersions(tx, namespace, "Person", "john", Range.unbounded()).map(JsonDocument::key).toList().blockingGet(),
+                    List.of(january.key()));
+            JsonDocument inFebruary = persistence.readDocument(tx, timestamp.withMonth(2), namespace, "Person", "john").blockingGet();
+            assertEquals(inFebruary.key(), january.key());
+            assertEquals(inFebruary.jackson(), january.jackson());
+
+            assertTrue(deduplicating.createIfChanged(tx, toDocument(namespace, "Person", "john", createPerson("James", "Smith"), timestamp.withMonth(3)),
+                    specification).blockingGet());
+            // Same content as january, but not as the version in effect in april.
+            assertTrue(deduplicating.createIfChanged(tx, toDocument(namespace, "Person", "john", createPerson("John", "Smith"), timestamp.withMonth(4)),
+                    specification).blockingGet());
+            ObjectNode reordered = mapper.createObjectNode();
+            reordered.put("isHuman", true).put("bornWeightKg", 3.82).put("born", 1998).put("lastname", "Smith").put("firstname", "John");
+            assertFalse(deduplicating.createIfChanged(tx, toDocument(namespace, "Person", "john", reordered, timestamp.withMonth(5)), specification).blockingGet());
+            assertEquals(size(persistence.readDocumentVersions(tx, namespace, "Person", "john", Range.unbounded()).blockingIterable().iterator()), 3);
+
+            persistence.deleteAllDocumentVersions(tx, namespace, "Person", "john", PersistenceDeletePolicy.FAIL_IF_INCOMING_LINKS).blockingAwait();
+        }
+    }
+
+    @Test
+    public void thatCreateIfChangedComparesWithVersionInEffectAtTimestamp() {
+        DeduplicatingPersistence deduplicating = Capabilities.require(persistence, DeduplicatingPersistence.class);
+        ZonedDateTime timestamp = parse("2000-01-01T00:00:00.000Z");
+        try (Transaction tx = persistence.createTransaction(false)) {
+            persistence.deleteAllDocumentVersions(tx, namespace, "Person", "john", PersistenceDeletePolicy.FAIL_IF_INCOMING_LINKS).blockingAwait();
+            persistence.createOrOverwrite(tx, toDocument(namespace, "Person", "john", createPerson("John", "Smith"), timestamp.withMonth(1)), specification).blockingAwait();
+            persistence.createOrOverwrite(tx, toDocument(namespace, "Person", "john", createPerson("James", "Smith"), timestamp.withMonth(3)), specification).blockingAwait();
+
+            // Out of order writes are compared with the version before them, not the latest version.
+            assertFalse(deduplicating.createIfChanged(tx, toDocument(namespace, "Person", "john", createPerson("John", "Smith"), timestamp.withMonth(2)),
+                    specification).blockingGet());
+            assertTrue(deduplicating.createIfChanged(tx, toDocument(namespace, "Person", "john", createPerson("James", "Smith"), timestamp.withMonth(2)),
+                    specification).blockingGet());
+            assertEquals(size(persistence.readDocumentVersions(tx, namespace, "Person", "john", Range.unbounded()).blockingIterable().iterator()), 3);
+
+            // Writes before the first version are never duplicates.
+            assertTrue(deduplicating.createIfChanged(tx, toDocument(namespace, "Person", "john", createPerson("John", "Smith"), timestamp.withYear(1999)),
+                    specification).blockingGet());
+
+            // Nor are writes after a delete marker.
+            persistence.markDocumentDeleted(tx, namespace, "Person", "john", timestamp.withMonth(4), PersistenceDeletePolicy.FAIL_IF_INCOMING_LINKS).blockingAwait();
+            assertTrue(deduplicating.createIfChanged(tx, toDocument(namespace, "Person", "john", createPerson("James", "Smith"), timestamp.withMonth(5)),
+                    specification).blockingGet());
+            assertEquals(persistence.readDocument(tx, timestamp.withMonth(5), namespace, "Person", "john").blockingGet().jackson(),
+                    createPerson("James", "Smith"));
+
+            // A changed document with the timestamp of an existing version overwrites it.
+            assertTrue(deduplicating.createIfChanged(tx, toDocument(namespace, "Person", "john", createPerson("Jim", "Smith"), timestamp.withMonth(5)),
+                    specification).blockingGet());
+            assertEquals(persistence.readDocument(tx, timestamp.withMonth(5), namespace, "Person", "john").blockingGet().jackson(),
+                    createPerson("Jim", "Smith"));
+
+            persistence.deleteAllDocumentVersions(tx, namespace, "Person", "john", PersistenceDeletePolicy.FAIL_IF_INCOMING_LINKS).blockingAwait();
+        }
+    }
+
+    @Test
+    public void thatTruncateNamespaceRemovesAllDocumentsOfNamespaceOnly() {
+        ResettablePersistence resettable = Capabilities.require(persistence, ResettablePersistence.class);
+        ZonedDateTime timestamp = parse("2019-01-01T00:00:00.000Z");
+        String otherNamespace = namespace + "_other";
+        JsonDocument oslo = toDocument(namespace, "Address", "oslo", createAddress("Oslo", "", "Norway"), timestamp);
+        JsonDocument otherOslo = toDocument(otherNamespace, "Address", "oslo", createAddress("Oslo", "", "Norway"), timestamp);
+        try (Transaction tx = persistence.createTransaction(false)) {
+            persistence.createOrOverwrite(tx, Flowable.just(oslo,
+                    toDocument(namespace, "Person", "jack", createPerson("Jack", "Smith", "/Address/oslo", "/Address/oslo", List.of("/Address/oslo")), timestamp),
+                    toDocument(namespace, "Person", "jack", createPerson("Jack", "Smith"), timestamp.plusDays(1))), specification).blockingAwait();
+            persistence.createOrOverwrite(tx, toDocument(namespace, "People", "simple", createSimpleArrayPeople(), timestamp), simpleArraySpecification()).blockingAwait();
+            persistence.createOrOverwrite(tx, otherOslo, specification).blockingAwait();
+        }
+        try (Transaction tx = persistence.createTransaction(false)) {
+            resettable.truncateNamespace(tx, namespace).blockingAwait();
+        }
+        try (Transaction tx = persistence.createTransaction(false)) {
+            for (String entity : List.of("Person", "Address", "FunkyLongAddress", "People")) {
+                assertEquals(size(persistence.readDocuments(tx, timestamp.plusDays(2), namespace, entity, Range.unbounded()).blockingIterable().iterator()), 0, entity);
+            }
+            assertEquals(size(persistence.readDocumentVersions(tx, namespace, "Person", "jack", Range.unbounded()).blockingIterable().iterator()), 0);
+            assertEquals(size(persistence.readSourceDocuments(tx, timestamp, namespace, "Address", "oslo", JsonNavigationPath.from("$.history.currentAddress"),
+                    "Person", Range.unbounded()).blockingIterable().iterator()), 0);
+            assertEquals(persistence.readDocument(tx, timestamp, otherNamespace, "Address", "oslo").blockingGet().jackson(), otherOslo.jackson());
+            persistence.deleteAllEntities(tx, otherNamespace, "Address", specification).blockingAwait();
+        }
+    }
+
+    @Test
+    public void thatRestoreUndoesChangesMadeAfterSnapshot() {
+        Capabilities.require(persistence, ResettablePersistence.class);
+        ZonedDateTime timestamp = parse("2019-01-01T00:00:00.000Z");
+        List<JsonDocument> fixture = List.of(
+                toDocument(namespace, "Address", "london", createAddress("London", "", "England"), timestamp),
+                toDocument(namespace, "Address", "oslo", createAddress("Oslo", "", "Norway"), timestamp),
+                toDocument(namespace, "FunkyLongAddress", "trondheim", createAddress("Trondheim", "", "Norway"), timestamp),
+                toDocument(namespace, "Person", "jack", createPerson("Jack", "Smith", "/Address/oslo", "/Address/oslo", List.of("/Address/london")), timestamp),
+                toDocument(namespace, "Person", "jill", createPerson("Jill", "Smith", "/Address/oslo", "/FunkyLongAddress/trondheim", List.of()), timestamp),
+                toDocument(namespace, "Person", "jill", createPerson("Jill", "Doe", "/Address/london", "/FunkyLongAddress/trondheim", List.of()), timestamp.plusDays(1))
+        );
+        String fixtureName = "thatRestoreUndoesChangesMadeAfterSnapshot";
+        loadFixture(fixtureName, tx -> persistence.createOrOverwrite(tx, Flowable.fromIterable(fixture), specification).blockingAwait());
+        Map<String, List<String>> expected = readFixtureState(timestamp);
+
+        try (Transaction tx = persistence.createTransaction(false)) {
+            persistence.deleteAllDocumentVersions(tx, namespace, "Person", "jack", PersistenceDeletePolicy.FAIL_IF_INCOMING_LINKS).blockingAwait();
+            persistence.markDocumentDeleted(tx, namespace, "Person", "jill", timestamp.plusDays(2), PersistenceDeletePolicy.FAIL_IF_INCOMING_LINKS).blockingAwait();
+            persistence.createOrOverwrite(tx, toDocument(namespace, "Person", "jane", createPerson("Jane", "Doe", "/Address/oslo", "/Address/oslo", List.of()), timestamp),
+                    specification).blockingAwait();
+        }
+        assertFalse(readFixtureState(timestamp).equals(expected));
+
+        loadFixture(fixtureName, tx -> {
+            throw new AssertionError("fixture must be restored from its snapshot");
+        });
+        assertEquals(readFixtureState(timestamp), expected);
+        try (Transaction tx = persistence.createTransaction(false)) {
+            resetNamespace(tx);
+        }
+    }
+
+    private Map<String, List<String>> readFixtureState(ZonedDateTime timestamp) {
+        return readFixtureState(namespace, timestamp);
+    }
+
+    private Map<String, List<String>> readFixtureState(String namespace, ZonedDateTime timestamp) {
+        Map<String, List<String>> state = new LinkedHashMap<>();
+        try (Transaction tx = persistence.createTransaction(true)) {
+            for (ZonedDateTime snapshot : List.of(timestamp, timestamp.plusDays(1), timestamp.plusDays(3))) {
+                for (String entity : List.of("Person", "Address", "FunkyLongAddress")) {
+                    state.put(entity + " at " + snapshot, persistence.readDocuments(tx, snapshot, namespace, entity, Range.unbounded())
+                            .map(document -> document.jackson().toString()).toList().blockingGet());
+                }
+                state.put("sources of oslo at " + snapshot, persistence.readSourceDocuments(tx, snapshot, namespace, "Address", "oslo",
+                        JsonNavigationPath.from("$.history.currentAddress"), "Person", Range.unbounded()).map(document -> document.jackson().toString()).toList().blockingGet());
+            }
+            for (String id : List.of("jack", "jill", "jane")) {
+                state.put("versions of " + id, persistence.readDocumentVersions(tx, namespace, "Person", id, Range.unbounded())
+                        .map(document -> document.key().timestamp().toString()).toList().blockingGet());
+            }
+        }
+        return state;
+    }
+
+    @Test
+    public void thatMembershipFilterHasNoFalseNegatives() {
+        MembershipFilterPersistence filter = Capabilities.require(persistence, MembershipFilterPersistence.class);
+        ZonedDateTime timestamp = parse("2019-01-01T00:00:00.000Z");
+        JsonNavigationPath lastname = JsonNavigationPath.from("$.lastname");
+        JsonNavigationPath city = JsonNavigationPath.from("$.city");
+        try (Transaction tx = persistence.createTransaction(false)) {
+            resetNamespace(tx);
+            List<JsonDocument> documents = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                documents.add(toDocument(namespace, "Address", format("address%02d", i), createAddress("City " + i, "", "Norway"), timestamp));
+                documents.add(toDocument(namespace, "Person", format("person%02d", i), createPerson("John", "Smith " + i,
+                        format("/Address/address%02d", i), format("/Address/address%02d", i), List.of()), timestamp));
+            }
+            persistence.createOrOverwrite(tx, Flowable.fromIterable(documents), specification).blockingAwait();
+            // Uncommitted writes are covered too.
+            assertFilterCovers(filter, documents, lastname, city);
+
+            // Entries removed with deleteAllEntities must be added again when rewritten.
+            persistence.deleteAllEntities(tx, namespace, "Person", specification).blockingAwait();
+            List<JsonDocument> rewritten = new ArrayList<>();
+            for (int i = 0; i < 50; i += 5) {
+                rewritten.add(toDocument(namespace, "Person", format("person%02d", i), createPerson("Jane", "Doe " + i), timestamp.plusDays(1)));
+            }
+            persistence.createOrOverwrite(tx, Flowable.fromIterable(rewritten), specification).blockingAwait();
+            assertFilterCovers(filter, rewritten, lastname, city);
+        }
+        try (Transaction tx = persistence.createTransaction(false)) {
+            // Cascading deletes, then recreation of the deleted documents.
+            persistence.createOrOverwrite(tx, toDocument(namespace, "Person", "person01", createPerson("Jack", "Smith", "/Address/address01",
+                    "/Address/address01", List.of()), timestamp), specification).blockingAwait();
+            persistence.deleteAllDocumentVersions(tx, namespace, "Address", "address01", PersistenceDeletePolicy.CASCADE_DELETE_ALL_INCOMING_LINKS_AND_NODES).blockingAwait();
+            List<JsonDocument> recreated = List.of(
+                    toDocument(namespace, "Address", "address01", createAddress("Bergen", "", "Norway"), timestamp.plusDays(2)),
+                    toDocument(namespace, "Person", "person01", createPerson("Jack", "Jones"), timestamp.plusDays(2)));
+            persistence.createOrOverwrite(tx, Flowable.fromIterable(recreated), specification).blockingAwait();
+            assertFilterCovers(filter, recreated, lastname, city);
+
+            // Documents behind a delete marker still have versions.
+            persistence.markDocumentDeleted(tx, namespace, "Address", "address02", timestamp.plusDays(3), PersistenceDeletePolicy.FAIL_IF_INCOMING_LINKS).blockingAwait();
+            assertTrue(filter.mightContain(namespace, "Address", "address02"));
+            assertTrue(filter.mightMatch(namespace, "Address", city, "City 2"));
+        }
+        try (Transaction tx = persistence.createTransaction(false)) {
+            resetNamespace(tx);
+        }
+    }
+
+    @Test
+    public void thatMembershipFilterMissesAreTrueMisses() {
+        MembershipFilterPersistence filter = Capabilities.require(persistence, MembershipFilterPersistence.class);
+        ZonedDateTime timestamp = parse("2019-01-01T00:00:00.000Z");
+        JsonNavigationPath city = JsonNavigationPath.from("$.city");
+        try (Transaction tx = persistence.createTransaction(false)) {
+            persistence.deleteAllEntities(tx, namespace, "Address", specification).blockingAwait();
+            for (int i = 0; i < 100; i += 2) {
+                persistence.createOrOverwrite(tx, toDocument(namespace, "Address", format("address%03d", i), createAddress("City " + i, "", "Norway"), timestamp),
+                        specification).blockingAwait();
+            }
+            for (int i = 0; i < 100; i++) {
+                String id = format("address%03d", i);
+                if (!filter.mightContain(namespace, "Address", id)) {
+                    assertNull(persistence.readDocument(tx, timestamp, namespace, "Address", id).blockingGet(), id);
+                }
+                if (!filter.mightMatch(namespace, "Address", city, "City " + i)) {
+                    assertEquals(size(persistence.findDocument(tx, timestamp, namespace, "Address", city, "City " + i, Range.unbounded())
+                            .blockingIterable().iterator()), 0, "City " + i);
+                }
+            }
+            persistence.deleteAllEntities(tx, namespace, "Address", specification).blockingAwait();
+        }
+    }
+
+    @Test
+    public void thatMembershipFilterKeepsEntriesOfCancelledDeletes() {
+        MembershipFilterPersistence filter = Capabilities.require(persistence, MembershipFilterPersistence.class);
+        ZonedDateTime timestamp = parse("2019-01-01T00:00:00.000Z");
+        JsonNavigationPath lastname = JsonNavigationPath.from("$.lastname");
+        JsonNavigationPath city = JsonNavigationPath.from("$.city");
+        List<JsonDocument> documents = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            documents.add(toDocument(namespace, "Address", format("address%02d", i), createAddress("City " + i, "", "Norway"), timestamp));
+            documents.add(toDocument(namespace, "Person", format("person%02d", i), createPerson("John", "Smith " + i), timestamp));
+        }
+        try (Transaction tx = persistence.createTransaction(false)) {
+            resetNamespace(tx);
+            persistence.createOrOverwrite(tx, Flowable.fromIterable(documents), specification).blockingAwait();
+        }
+
+        Transaction tx = persistence.createTransaction(false);
+        try {
+            persistence.deleteAllEntities(tx, namespace, "Person", specification).blockingAwait();
+            persistence.deleteAllDocumentVersions(tx, namespace, "Address", "address00", PersistenceDeletePolicy.FAIL_IF_INCOMING_LINKS).blockingAwait();
+            // Other transactions still see the documents while the delete is uncommitted.
+            assertFilterCovers(filter, documents, lastname, city);
+        } finally {
+            tx.cancel().join();
+        }
+        assertFilterCovers(filter, documents, lastname, city);
+        try (Transaction readTx = persistence.createTransaction(true)) {
+            assertNotNull(persistence.readDocument(readTx, timestamp, namespace, "Address", "address00").blockingGet());
+            assertNotNull(persistence.readDocument(readTx, timestamp, namespace, "Person", "person00").blockingGet());
+        }
+
+        try (Transaction resetTx = persistence.createTransaction(false)) {
+            resetNamespace(resetTx);
+        }
+    }
+
+    private void assertFilterCovers(MembershipFilterPersistence filter, List<JsonDocument> documents, JsonNavigationPath lastname, JsonNavigationPath city) {
+        for (JsonDocument document : documents) {
+            String entity = document.key().entity();
+            String id = document.key().id();
+            assertTrue(filter.mightContain(namespace, entity, id), format("false negative for /%s/%s", entity, id));
+            if ("Person".equals(entity)) {
+                String value = document.jackson().get("lastname").textValue();
+                assertTrue(filter.mightMatch(namespace, entity, lastname, value), format("false negative for %s = %s", lastname.serialize(), value));
+            } else {
+                String value = document.jackson().get("city").textValue();
+                assertTrue(filter.mightMatch(namespace, entity, city, value), format("false negative for %s = %s", city.serialize(), value));
+            }
+        }
+    }
+
+    @Test
+    public void thatDocumentsOfGeneratedSpecificationRoundTrip() {
+        int idsPerEntity = 5;
+        SpecificationGenerator generator = new SpecificationGenerator(Long.getLong("lds.test.generatorSeed", 1))
+                .managedDomains(Integer.getInteger("lds.test.generatorWidth", 20))
+                .depth(Integer.getInteger("lds.test.generatorDepth", 8))
+                .idsPerEntity(idsPerEntity);
+        Specification specification = generator.generateSpecification();
+        List<String> entities = new ArrayList<>(new TreeSet<>(specification.getManagedDomains()));
+        ZonedDateTime timestamp = parse("2019-01-01T00:00:00.000Z");
+        try (Transaction tx = persistence.createTransaction(false)) {
+            resetNamespace(tx, specification);
+            persistence.createOrOverwrite(tx, Flowable.fromIterable(entities)
+                    .concatMap(entity -> Flowable.range(0, idsPerEntity)
+                            .map(i -> toDocument(namespace, entity, SpecificationGenerator.id(i), generator.generateDocument(specification, entity, i), timestamp))),
+                    specification).blockingAwait();
+        }
+        ReferenceExtractor extractor = new ReferenceExtractor(specification);
+        try (Transaction tx = persistence.createTransaction(true)) {
+            for (String entity : entities) {
+                assertEquals(size(persistence.readDocuments(tx, timestamp, namespace, entity, Range.unbounded()).blockingIterable().iterator()), idsPerEntity, entity);
+                for (int i = 0; i < idsPerEntity; i++) {
+                    String id = SpecificationGenerator.id(i);
+                    JsonDocument document = persistence.readDocument(tx, timestamp, namespace, entity, id).blockingGet();
+                    assertNotNull(document, entity + "/" + id);
+                    assertEquals(document.jackson(), generator.generateDocument(specification, entity, i), entity + "/" + id);
+
+                    Map<String, Set<String>> expectedLinks = new LinkedHashMap<>();
+                    extractor.extract(entity, document.jackson(), (path, targetEntity, targetId) ->
+                            expectedLinks.computeIfAbsent(path + " " + targetEntity, k -> new TreeSet<>()).add(targetId));
+                    for (Map.Entry<String, Set<String>> links : expectedLinks.entrySet()) {
+                        String[] pathAndTarget = links.getKey().split(" ");
+                        Set<String> linked = new TreeSet<>();
+                        persistence.readLinkedDocuments(tx, timestamp, namespace, entity, id, JsonNavigationPath.from(pathAndTarget[0]), pathAndTarget[1], Range.unbounded())
+                                .blockingForEach(target -> linked.add(target.key().id()));
+                        assertEquals(linked, links.getValue(), format("links of /%s/%s at %s", entity, id, links.getKey()));
+                    }
+                }
+            }
+        }
+        try (Transaction tx = persistence.createTransaction(false)) {
+            resetNamespace(tx, specification);
+        }
+    }
+
+    @Test
+    public void thatExportedNamespaceImportsIntoAnotherNamespace() throws IOException {
+        Capabilities.require(persistence, ChangeFeedPersistence.class);
+        ZonedDateTime timestamp = parse("2019-01-01T00:00:00.000Z");
+        String importNamespace = namespace + "_import";
+        try (Transaction tx = persistence.createTransaction(false)) {
+            resetNamespace(tx);
+            for (String entity : specification.getManagedDomains()) {
+                persistence.deleteAllEntities(tx, importNamespace, entity, specification).blockingAwait();
+            }
+            persistence.createOrOverwrite(tx, Flowable.just(
+                    toDocument(namespace, "Address", "london", createAddress("London", "", "England"), timestamp),
+                    toDocument(namespace, "Address", "oslo", createAddress("Oslo", "", "Norway"), timestamp),
+                    toDocument(namespace, "FunkyLongAddress", "trondheim", createAddress("Trondheim", "", "Norway"), timestamp),
+                    toDocument(namespace, "Person", "jack", createPerson("Jack", "Smith", "/Address/oslo", "/Address/oslo", List.of("/Address/london")), timestamp),
+                    toDocument(namespace, "Person", "jill", createPerson("Jill", "Smith", "/Address/oslo", "/FunkyLongAddress/trondheim", List.of()), timestamp),
+                    toDocument(namespace, "Person", "jill", createPerson("Jill", "Doe", "/Address/london", "/FunkyLongAddress/trondheim", List.of()), timestamp.plusDays(1))
+            ), specification).blockingAwait();
+            persistence.markDocumentDeleted(tx, namespace, "Person", "jill", timestamp.plusDays(2), PersistenceDeletePolicy.FAIL_IF_INCOMING_LINKS).blockingAwait();
+        }
+
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        // Small chunks, so that the import writes several chunks concurrently.
+        long exported = new NamespaceExporter(persistence).chunkSize(2).export(namespace, archive).blockingGet();
+        long imported = new NamespaceImporter(persistence, specification).parallelism(4).markerBatchSize(1)
+                .importInto(importNamespace, new ByteArrayInputStream(archive.toByteArray())).blockingGet();
+        assertEquals(imported, exported);
+        // Seven versions and the delete marker of jill.
+        assertEquals(exported, 8);
+
+        assertEquals(readFixtureState(importNamespace, timestamp), readFixtureState(namespace, timestamp));
+        try (Transaction tx = persistence.createTransaction(true)) {
+            assertEquals(persistence.readLinkedDocuments(tx, timestamp, importNamespace, "Person", "jack", JsonNavigationPath.from("$.history.previousAddresses[]"),
+                    "Address", Range.unbounded()).map(document -> document.key().id()).toList().blockingGet(), List.of("london"));
+        }
+
+        try (Transaction tx = persistence.createTransaction(false)) {
+            resetNamespace(tx);
+            for (String entity : specification.getManagedDomains()) {
+                persistence.deleteAllEntities(tx, importNamespace, entity, specification).blockingAwait();
+            }
+        }
+    }
+
+    @Test
+    public void thatImportKeepsLaterVersionsLinkingToDeletedDocuments() throws IOException {
+        Capabilities.require(persistence, ChangeFeedPersistence.class);
+        ZonedDateTime timestamp = parse("2019-01-01T00:00:00.000Z");
+        String importNamespace = namespace + "_import";
+        try (Transaction tx = persistence.createTransaction(false)) {
+            resetNamespace(tx);
+            for (String entity : specification.getManagedDomains()) {
+                persistence.deleteAllEntities(tx, importNamespace, entity, specification).blockingAwait();
+            }
+            persistence.createOrOverwrite(tx, Flowable.just(
+                    toDocument(namespace, "Address", "london", createAddress("London", "", "England"), timestamp),
+                    toDocument(namespace, "Address", "oslo", createAddress("Oslo", "", "Norway"), timestamp),
+                    toDocument(namespace, "Person", "jack", createPerson("Jack", "Smith", "/Address/london", "/Address/london", List.of()), timestamp)
+            ), specification).blockingAwait();
+            persistence.markDocumentDeleted(tx, namespace, "Address", "oslo", timestamp.plusDays(1), PersistenceDeletePolicy.FAIL_IF_INCOMING_LINKS).blockingAwait();
+            // A later version of jack links to oslo, which is behind a delete marker.
+            persistence.createOrOverwrite(tx, toDocument(namespace, "Person", "jack",
+                    createPerson("Jack", "Smith", "/Address/oslo", "/Address/london", List.of("/Address/london")), timestamp.plusDays(2)), specification).blockingAwait();
+        }
+
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        new NamespaceExporter(persistence).export(namespace, archive).blockingGet();
+        Throwable failure = new NamespaceImporter(persistence, specification)
+                .importInto(importNamespace, new ByteArrayInputStream(archive.toByteArray())).ignoreElement().blockingGet();
+
+        if (failure == null) {
+            assertEquals(readFixtureState(importNamespace, timestamp), readFixtureState(namespace, timestamp));
+        }
+        // Whether the provider accepts the marker or rejects it for the link of the later version, jack is never deleted.
+        try (Transaction tx = persistence.createTransaction(true)) {
+            assertEquals(persistence.readDocumentVersions(tx, importNamespace, "Person", "jack", Range.unbounded()).map(document -> document.jackson().toString()).toList().blockingGet(),
+                    persistence.readDocumentVersions(tx, namespace, "Person", "jack", Range.unbounded()).map(document -> document.jackson().toString()).toList().blockingGet());
+        }
+
+        try (Transaction tx = persistence.createTransaction(false)) {
+            resetNamespace(tx);
+            for (String entity : specification.getManagedDomains()) {
+                persistence.deleteAllEntities(tx, importNamespace, entity, specification).blockingAwait();
+            }
+        }
+    }
+
+    @Test
+    public void thatReadDocumentsAtMatchesReadDocumentsPerSnapshot() {
+        BatchSnapshotPersistence batch = Capabilities.require(persistence, BatchSnapshotPersistence.class);
+        ZonedDateTime timestamp = parse("2000-01-01T00:00:00.000Z");
+        try (Transaction tx = persistence.createTransaction(false)) {
+            resetNamespace(tx);
+            // A version of person00 every month, as in testReadDocumentVersions.
+            persistence.createOrOverwrite(tx, Flowable.range(1, 12).map(month -> createPersonVersion(timestamp.withMonth(month))), specification).blockingAwait();
+            persistence.createOrOverwrite(tx, Flowable.just(
+                    toDocument(namespace, "Person", "person01", createPerson("Jane", "Doe"), timestamp.withMonth(3)),
+                    toDocument(namespace, "Person", "person02", createPerson("Jack", "Smith"), timestamp.withMonth(10)),
+                    toDocument(namespace, "Person", "person03", createPerson("Jill", "Smith"), timestamp.withMonth(2))
+            ), specification).blockingAwait();
+            persistence.markDocumentDeleted(tx, namespace, "Person", "person01", timestamp.withMonth(7), PersistenceDeletePolicy.FAIL_IF_INCOMING_LINKS).blockingAwait();
+            persistence.createOrOverwrite(tx, toDocument(namespace, "Person", "person01", createPerson("Jane", "Smith"), timestamp.withMonth(9)),
+                    specification).blockingAwait();
+        }
+
+        // Before the first version, on every version, between versions and after the last one.
+        List<ZonedDateTime> snapshots = new ArrayList<>();
+        snapshots.add(timestamp.minusDays(1));
+        for (int month = 1; month <= 12; month++) {
+            snapshots.add(timestamp.withMonth(month));
+            snapshots.add(timestamp.withMonth(month).withDayOfMonth(15));
+        }
+        snapshots.add(timestamp.plusYears(1));
+
+        try (Transaction tx = persistence.createTransaction(true)) {
+            for (Range<String> range : List.of(Range.<String>unbounded(), Range.<String>first(2), Range.firstAfter(2, "person00"), Range.<String>last(1))) {
+                List<SnapshotDocument> actual = batch.readDocumentsAt(tx, snapshots, namespace, "Person", range).toList().blockingGet();
+
+                Map<ZonedDateTime, List<String>> actualBySnapshot = new LinkedHashMap<>();
+                Map<ZonedDateTime, List<String>> expectedBySnapshot = new LinkedHashMap<>();
+                for (ZonedDateTime snapshot : snapshots) {
+                    actualBySnapshot.put(snapshot, actual.stream()
+                            .filter(result -> result.snapshot().isEqual(snapshot))
+                            .map(result -> result.document().key().id() + " " + result.document().jackson())
+                            .collect(Collectors.toList()));
+                    expectedBySnapshot.put(snapshot, persistence.readDocuments(tx, snapshot, namespace, "Person", range)
+                            .map(document -> document.key().id() + " " + document.jackson())
+                            .toList().blockingGet());
+                }
+                assertEquals(actualBySnapshot, expectedBySnapshot, "readDocumentsAt(..., " + range + ")");
+
+                // Each id is visited once, with its versions in snapshot order.
+                Set<String> visited = new LinkedHashSet<>();
+                SnapshotDocument previous = null;
+                for (SnapshotDocument result : actual) {
+                    String id = result.document().key().id();
+                    if (previous != null && previous.document().key().id().equals(id)) {
+                        assertTrue(previous.snapshot().isBefore(result.snapshot()), "snapshot order of " + id + " in readDocumentsAt(..., " + range + ")");
+                    } else {
+                        assertTrue(visited.add(id), id + " visited twice by readDocumentsAt(..., " + range + ")");
+                    }
+                    previous = result;
+                }
+            }
+        }
+
+        try (Transaction tx = persistence.createTransaction(false)) {
+            resetNamespace(tx);
+        }
+    }
+
+    @Test
+    public void thatReadDocumentsAtRejectsUnsortedSnapshots() {
+        BatchSnapshotPersistence batch = Capabilities.require(persistence, BatchSnapshotPersistence.class);
+        ZonedDateTime timestamp = parse("2000-01-01T00:00:00.000Z");
+        try (Transaction tx = persistence.createTransaction(true)) {
+            assertThatThrownBy(() -> batch.readDocumentsAt(tx, List.of(timestamp.withMonth(2), timestamp.withMonth(1)), namespace, "Person",
+                    Range.unbounded()).toList().blockingGet()).isInstanceOf(IllegalArgumentException.class);
+            assertThatThrownBy(() -> batch.readDocumentsAt(tx, List.of(timestamp, timestamp), namespace, "Person",
+                    Range.unbounded()).toList().blockingGet()).isInstanceOf(IllegalArgumentException.class);
+            assertEquals(batch.readDocumentsAt(tx, List.of(), namespace, "Person", Range.unbounded()).count().blockingGet(), Long.valueOf(0));
+        }
+    }
+
     private void readLinksAndCheckDocuments(Transaction tx, String jsonNavigationPath, String personId, ZonedDateTime timestamp, Map<String, List<String>> entityIdsByEntityName) throws JSONException {
         for (String targetEntity : Set.of("Address", "FunkyLongAddress")) {
             List<JsonDocument> actualDocuments = new ArrayList<>();
@@ -0,0 +1,65 @@
+package io.descoped.lds.core.persistence.test;
+
+import java.time.Duration;
+
+import static java.lang.String.format;
+
+/**
+ * Live view of the resources held by a persistence provider. Values are read when the methods are called.
+ */
+public interface PersistenceMetrics {
+
+    /**
+     * Pooled connections currently lent out.
+     */
+    int activeConnections();
+
+    /**
+     * Pooled connections available for use.
+     */
+    int idleConnections();
+
+    /**
+     * Transactions created and neither committed nor cancelled.
+     */
+    int openTransactions();
+
+    /**
+     * Result streams not yet completed, failed or cancelled.
+     */
+    int openCursors();
+
+    /**
+     * Commits or cancels requested and not yet completed.
+     */
+    int pendingCommits();
+
+    /**
+     * Age of the oldest open transaction, {@link Duration#ZERO} if none are open.
+     */
+    Duration oldestOpenTransaction();
+
+    long completedTransactions();
+
+    /**
+     * Sum of the durations of all completed transactions, from creation to completed commit or cancel.
+     */
+    Duration totalTransactionTime();
+
+    Duration longestTransactionTime();
+
+    /**
+     * Whether all transactions, cursors, commits and lent connections have been released.
+     */
+    default boolean isIdle() {
+        return activeConnections() == 0 && openTransactions() == 0 && openCursors() == 0 && pendingCommits() == 0;
+    }
+
+    default String describe() {
+        long completed = completedTransactions();
+        return format("connections active=%d idle=%d, transactions open=%d oldest=%s pending commits=%d, cursors open=%d, " +
+                        "transactions completed=%d mean=%s longest=%s",
+                activeConnections(), idleConnections(), openTransactions(), oldestOpenTransaction(), pendingCommits(), openCursors(),
+                completed, completed == 0 ? Duration.ZERO : totalTransactionTime().dividedBy(completed), longestTransactionTime());
+    }
+}
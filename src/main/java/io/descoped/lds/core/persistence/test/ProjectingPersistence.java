@@ -0,0 +1,22 @@
+package io.descoped.lds.core.persistence.test;
+
+import io.descoped.lds.api.json.JsonNavigationPath;
+import io.descoped.lds.api.persistence.Transaction;
+import io.descoped.lds.api.persistence.json.JsonDocument;
+import io.descoped.lds.api.persistence.reactivex.Range;
+import io.reactivex.Flowable;
+
+import java.time.ZonedDateTime;
+import java.util.Set;
+
+/**
+ * Optional provider capability for reading partial documents. The operations select the same documents, in the
+ * same order, as their counterparts in {@link io.descoped.lds.api.persistence.reactivex.RxJsonPersistence}, but
+ * each document only holds the values at the projected paths, as defined by {@link JsonProjection}.
+ */
+public interface ProjectingPersistence {
+
+    Flowable<JsonDocument> readDocuments(Transaction tx, ZonedDateTime snapshot, String namespace, String entityName, Range<String> range, Set<JsonNavigationPath> projection);
+
+    Flowable<JsonDocument> findDocument(Transaction tx, ZonedDateTime snapshot, String namespace, String entityName, JsonNavigationPath path, Object value, Range<String> range, Set<JsonNavigationPath> projection);
+}
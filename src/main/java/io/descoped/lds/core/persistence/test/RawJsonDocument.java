@@ -0,0 +1,67 @@
+package io.descoped.lds.core.persistence.test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.descoped.lds.api.persistence.DocumentKey;
+import io.descoped.lds.api.persistence.json.JsonDocument;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+import static io.descoped.lds.api.persistence.json.JsonTools.mapper;
+
+/**
+ * A document in its serialized UTF-8 JSON form. The Jackson tree is only built when {@link #jackson()} is called.
+ */
+public class RawJsonDocument {
+
+    private final DocumentKey key;
+    private final byte[] bytes;
+    private volatile JsonNode jackson;
+
+    public RawJsonDocument(DocumentKey key, byte[] bytes) {
+        this.key = Objects.requireNonNull(key);
+        this.bytes = Objects.requireNonNull(bytes);
+    }
+
+    public DocumentKey key() {
+        return key;
+    }
+
+    /**
+     * The serialized document. Callers must not modify the returned array.
+     */
+    public byte[] bytes() {
+        return bytes;
+    }
+
+    public ByteBuffer buffer() {
+        return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
+
+    public JsonNode jackson() {
+        JsonNode node = jackson;
+        if (node == null) {
+            try {
+                node = mapper.readTree(bytes);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            jackson = node;
+        }
+        return node;
+    }
+
+    public JsonDocument toJsonDocument() {
+        return new JsonDocument(key, jackson());
+    }
+
+    @Override
+    public String toString() {
+        return "RawJsonDocument{" +
+                "key=" + key +
+                ", bytes=" + bytes.length +
+                '}';
+    }
+}
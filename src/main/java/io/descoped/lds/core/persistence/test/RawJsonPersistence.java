@@ -0,0 +1,20 @@
+package io.descoped.lds.core.persistence.test;
+
+import io.descoped.lds.api.persistence.Transaction;
+import io.descoped.lds.api.persistence.reactivex.Range;
+import io.reactivex.Flowable;
+import io.reactivex.Maybe;
+
+import java.time.ZonedDateTime;
+
+/**
+ * Optional provider capability that returns documents as the serialized bytes held by the storage, without
+ * building a Jackson tree. The semantics of every operation are identical to the corresponding tree based read in
+ * {@link io.descoped.lds.api.persistence.reactivex.RxJsonPersistence}.
+ */
+public interface RawJsonPersistence {
+
+    Maybe<RawJsonDocument> readRawDocument(Transaction tx, ZonedDateTime snapshot, String namespace, String entityName, String id);
+
+    Flowable<RawJsonDocument> readRawDocuments(Transaction tx, ZonedDateTime snapshot, String namespace, String entityName, Range<String> range);
+}
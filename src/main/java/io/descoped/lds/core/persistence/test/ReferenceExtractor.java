@@ -0,0 +1,179 @@
+package io.descoped.lds.core.persistence.test;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import io.descoped.lds.api.persistence.json.JsonTools;
+import io.descoped.lds.api.specification.Specification;
+import io.descoped.lds.api.specification.SpecificationElement;
+import io.descoped.lds.api.specification.SpecificationElementType;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Finds the ref values of documents in a single pass over their tokens, guided by the {@link Specification}.
+ * <p>
+ * Only properties declared in the specification are descended into; everything else is skipped without being
+ * parsed into values. A ref value {@code /Entity/id} is reported with the navigation path of its specification
+ * element, e.g. {@code $.history.currentAddress} or {@code $.history.previousAddresses[]}. Values that are not
+ * strings of that form, or whose entity is not among the ref types of the element, are ignored.
+ * <p>
+ * The path tree of each entity is built on first use and shared by later calls, so an extractor should be kept for
+ * as long as its specification is in use. Instances are thread-safe.
+ */
+public class ReferenceExtractor {
+
+    @FunctionalInterface
+    public interface ReferenceConsumer {
+        void accept(String path, String targetEntity, String targetId);
+    }
+
+    private final Specification specification;
+    private final Map<String, PathNode> pathTreeByEntity = new ConcurrentHashMap<>();
+
+    public ReferenceExtractor(Specification specification) {
+        this.specification = specification;
+    }
+
+    public void extract(String entityName, JsonNode document, ReferenceConsumer consumer) {
+        try (JsonParser parser = document.traverse()) {
+            extract(entityName, parser, consumer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void extract(String entityName, byte[] json, ReferenceConsumer consumer) {
+        try (JsonParser parser = JsonTools.mapper.getFactory().createParser(json)) {
+            extract(entityName, parser, consumer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Reads one value from the parser, which must not have been advanced past the start of it.
+     */
+    public void extract(String entityName, JsonParser parser, ReferenceConsumer consumer) throws IOException {
+        PathNode root = pathTree(entityName);
+        if (root == null) {
+            throw new IllegalArgumentException("Entity is not managed by the specification: " + entityName);
+        }
+        JsonToken token = parser.currentToken() == null ? parser.nextToken() : parser.currentToken();
+        if (token != null) {
+            walk(parser, token, root, consumer);
+        }
+    }
+
+    private PathNode pathTree(String entityName) {
+        PathNode root = pathTreeByEntity.get(entityName);
+        if (root == null) {
+            SpecificationElement element = specification.getRootElement().getProperties().get(entityName);
+            if (element == null) {
+                return null;
+            }
+            root = pathTreeByEntity.computeIfAbsent(entityName, name -> {
+                PathNode tree = PathNode.build(element, "$");
+                return tree == null ? PathNode.NO_REFS : tree;
+            });
+        }
+        return root;
+    }
+
+    private static void walk(JsonParser parser, JsonToken token, PathNode node, ReferenceConsumer consumer) throws IOException {
+        if (node.refTypes != null) {
+            if (token == JsonToken.VALUE_STRING) {
+                emit(parser.getText(), node, consumer);
+            } else if (token == JsonToken.START_ARRAY) {
+                for (JsonToken item = parser.nextToken(); item != JsonToken.END_ARRAY; item = parser.nextToken()) {
+                    if (item == JsonToken.VALUE_STRING) {
+                        emit(parser.getText(), node, consumer);
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        } else if (token == JsonToken.START_OBJECT && node.properties != null) {
+            for (JsonToken field = parser.nextToken(); field == JsonToken.FIELD_NAME; field = parser.nextToken()) {
+                PathNode child = node.properties.get(parser.getCurrentName());
+                JsonToken value = parser.nextToken();
+                if (child == null) {
+                    parser.skipChildren();
+                } else {
+                    walk(parser, value, child, consumer);
+                }
+            }
+        } else if (token == JsonToken.START_ARRAY && node.items != null) {
+            for (JsonToken item = parser.nextToken(); item != JsonToken.END_ARRAY; item = parser.nextToken()) {
+                walk(parser, item, node.items, consumer);
+            }
+        } else {
+            parser.skipChildren();
+        }
+    }
+
+    private static void emit(String value, PathNode node, ReferenceConsumer consumer) {
+        int separator = value.indexOf('/', 1);
+        if (value.isEmpty() || value.charAt(0) != '/' || separator < 0 || separator == value.length() - 1) {
+            return;
+        }
+        String entity = value.substring(1, separator);
+        if (node.refTypes.contains(entity)) {
+            consumer.accept(node.path, entity, value.substring(separator + 1));
+        }
+    }
+
+    /**
+     * The parts of a specification element that lead to refs, with the navigation path of every ref element.
+     */
+    private static class PathNode {
+
+        private static final PathNode NO_REFS = new PathNode("$", null, null, null);
+
+        private final String path;
+        private final Set<String> refTypes;
+        private final Map<String, PathNode> properties;
+        private final PathNode items;
+
+        private PathNode(String path, Set<String> refTypes, Map<String, PathNode> properties, PathNode items) {
+            this.path = path;
+            this.refTypes = refTypes;
+            this.properties = properties;
+            this.items = items;
+        }
+
+        /**
+         * @return the node, or {@code null} if there are no refs at or below the element
+         */
+        private static PathNode build(SpecificationElement element, String path) {
+            if (element.getSpecificationElementType() == SpecificationElementType.REF) {
+                boolean array = element.getJsonTypes().contains("array");
+                return new PathNode(array ? path + "[]" : path, Set.copyOf(element.getRefTypes()), null, null);
+            }
+            Map<String, PathNode> properties = null;
+            if (element.getProperties() != null) {
+                for (SpecificationElement property : element.getProperties().values()) {
+                    PathNode child = build(property, path + "." + property.getName());
+                    if (child != null) {
+                        if (properties == null) {
+                            properties = new HashMap<>();
+                        }
+                        properties.put(property.getName(), child);
+                    }
+                }
+            }
+            PathNode items = element.getItems() == null ? null : build(element.getItems(), path + "[]");
+            if (properties == null && items == null) {
+                return null;
+            }
+            return new PathNode(path, null, properties, items);
+        }
+    }
+}
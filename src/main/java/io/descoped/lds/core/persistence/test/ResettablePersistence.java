@@ -0,0 +1,32 @@
+package io.descoped.lds.core.persistence.test;
+
+import io.descoped.lds.api.persistence.Transaction;
+import io.reactivex.Completable;
+
+/**
+ * Optional provider capability for resetting a namespace between tests, as a cheaper alternative to
+ * {@code deleteAllEntities} per entity.
+ * <p>
+ * {@link #truncateNamespace} should take constant time regardless of the amount of data, e.g. by truncating or
+ * dropping tables or schemas. A snapshot holds every version, delete marker and link of the namespace, and
+ * restoring it replaces the current contents of the namespace, leaving other namespaces untouched.
+ */
+public interface ResettablePersistence {
+
+    /**
+     * Removes every document of the namespace, of all entities.
+     */
+    Completable truncateNamespace(Transaction tx, String namespace);
+
+    /**
+     * Saves the contents of the namespace under the name, replacing any earlier snapshot with the same name.
+     */
+    Completable snapshot(String namespace, String name);
+
+    /**
+     * Replaces the contents of the namespace with the named snapshot.
+     *
+     * @throws IllegalArgumentException through the completable if there is no snapshot with the name
+     */
+    Completable restore(String namespace, String name);
+}
@@ -0,0 +1,632 @@
+package io.descoped.lds.core.persistence.test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.descoped.lds.api.json.JsonNavigationPath;
+import io.descoped.lds.api.persistence.DocumentKey;
+import io.descoped.lds.api.persistence.PersistenceDeletePolicy;
+import io.descoped.lds.api.persistence.PersistenceException;
+import io.descoped.lds.api.persistence.Transaction;
+import io.descoped.lds.api.persistence.TransactionFactory;
+import io.descoped.lds.api.persistence.TransactionStatistics;
+import io.descoped.lds.api.persistence.json.JsonDocument;
+import io.descoped.lds.api.persistence.reactivex.Range;
+import io.descoped.lds.api.persistence.reactivex.RxJsonPersistence;
+import io.descoped.lds.api.specification.Specification;
+import io.descoped.lds.api.specification.SpecificationElement;
+import io.descoped.lds.api.specification.SpecificationElementType;
+import io.reactivex.Completable;
+import io.reactivex.Flowable;
+import io.reactivex.FlowableSubscriber;
+import io.reactivex.Maybe;
+import io.reactivex.Single;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Partitions documents across several backend providers by a hash of (namespace, entity, id). All versions of a
+ * document live on the same shard, so single-document operations go to one shard, while entity-wide reads fan out
+ * to every shard and are merged back into id order.
+ * <p>
+ * A document may be linked from documents on any shard, so the delete policies of {@code deleteAllDocumentVersions}
+ * and {@code markDocumentDeleted} are enforced here: the incoming links declared by the specification are read from
+ * every shard before the delete is passed on to the shard that owns the document.
+ */
+public class ShardedPersistence implements RxJsonPersistence {
+
+    private final List<RxJsonPersistence> shards;
+    private final List<Relation> relations;
+
+    public ShardedPersistence(List<? extends RxJsonPersistence> shards, Specification specification) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard is required");
+        }
+        this.shards = List.copyOf(shards);
+        this.relations = Relation.of(specification);
+    }
+
+    public List<RxJsonPersistence> shards() {
+        return shards;
+    }
+
+    public int shardOf(String namespace, String entityName, String id) {
+        return Math.floorMod(Objects.hash(namespace, entityName, id), shards.size());
+    }
+
+    private int shardOf(DocumentKey key) {
+        return shardOf(key.namespace(), key.entity(), key.id());
+    }
+
+    @Override
+    public TransactionFactory transactionFactory() throws PersistenceException {
+        return new ShardedTransactionFactory();
+    }
+
+    @Override
+    public ShardedTransaction createTransaction(boolean readOnly) throws PersistenceException {
+        return new ShardedTransaction(readOnly);
+    }
+
+    @Override
+    public Maybe<JsonDocument> readDocument(Transaction tx, ZonedDateTime snapshot, String ns, String entityName, String id) {
+        int shard = shardOf(ns, entityName, id);
+        return Maybe.defer(() -> shards.get(shard).readDocument(shardTransaction(tx, shard), snapshot, ns, entityName, id));
+    }
+
+    @Override
+    public Flowable<JsonDocument> readDocuments(Transaction tx, ZonedDateTime snapshot, String ns, String entityName, Range<String> range) {
+        return scatter(range, shard -> shards.get(shard).readDocuments(shardTransaction(tx, shard), snapshot, ns, entityName, range));
+    }
+
+    @Override
+    public Flowable<JsonDocument> readDocumentVersions(Transaction tx, String ns, String entityName, String id, Range<ZonedDateTime> range) {
+        int shard = shardOf(ns, entityName, id);
+        return Flowable.defer(() -> shards.get(shard).readDocumentVersions(shardTransaction(tx, shard), ns, entityName, id, range));
+    }
+
+    /**
+     * The links are read from the source document and each target is read from its own shard. Targets that do not
+     * exist at the snapshot are skipped before the limit of the range is applied.
+     */
+    @Override
+    public Flowable<JsonDocument> readLinkedDocuments(Transaction tx, ZonedDateTime snapshot, String ns, String entityName, String id,
+                                                      JsonNavigationPath jsonNavigationPath, String targetEntityName, Range<String> range) {
+        String prefix = "/" + targetEntityName + "/";
+        return readDocument(tx, snapshot, ns, entityName, id)
+                .flattenAsFlowable(document -> {
+                    NavigableSet<String> targetIds = new TreeSet<>();
+                    for (JsonNode value : JsonNavigation.values(document.jackson(), jsonNavigationPath)) {
+                        if (value.isTextual() && value.textValue().startsWith(prefix)) {
+                            targetIds.add(value.textValue().substring(prefix.length()));
+                        }
+                    }
+                    return applyRange(targetIds, range);
+                })
+                .concatMapMaybe(targetId -> readDocument(tx, snapshot, ns, targetEntityName, targetId))
+                .take(range.isLimited() ? range.getLimit() : Long.MAX_VALUE);
+    }
+
+    @Override
+    public Flowable<JsonDocument> readSourceDocuments(Transaction tx, ZonedDateTime snapshot, String ns, String targetEntityName, String targetId,
+                                                      JsonNavigationPath relationPath, String sourceEntityName, Range<String> range) {
+        return scatter(range, shard -> shards.get(shard).readSourceDocuments(shardTransaction(tx, shard), snapshot, ns, targetEntityName, targetId,
+                relationPath, sourceEntityName, range));
+    }
+
+    @Override
+    public Completable createOrOverwrite(Transaction tx, JsonDocument document, Specification specification) {
+        int shard = shardOf(document.key());
+        return Completable.defer(() -> shards.get(shard).createOrOverwrite(shardTransaction(tx, shard), document, specification));
+    }
+
+    /**
+     * The documents are grouped by shard as they flow, and every shard writes its group as it arrives.
+     */
+    @Override
+    public Completable createOrOverwrite(Transaction tx, Flowable<JsonDocument> documentFlowable, Specification specification) {
+        return documentFlowable.groupBy(document -> shardOf(document.key()))
+                .flatMapCompletable(group -> shards.get(group.getKey()).createOrOverwrite(shardTransaction(tx, group.getKey()), group, specification),
+                        false, shards.size());
+    }
+
+    @Override
+    public Completable deleteDocument(Transaction tx, String ns, String entityName, String id, ZonedDateTime version, PersistenceDeletePolicy policy) {
+        int shard = shardOf(ns, entityName, id);
+        return Completable.defer(() -> shards.get(shard).deleteDocument(shardTransaction(tx, shard), ns, entityName, id, version, policy));
+    }
+
+    @Override
+    public Completable deleteAllDocumentVersions(Transaction tx, String ns, String entity, String id, PersistenceDeletePolicy policy) {
+        return Completable.defer(() -> deleteAllDocumentVersions(tx, ns, entity, id, policy, new HashSet<>()));
+    }
+
+    /**
+     * @param deleting the documents of the cascade in progress, which are not deleted again when a cycle of links
+     *                 leads back to them
+     */
+    private Completable deleteAllDocumentVersions(Transaction tx, String ns, String entity, String id, PersistenceDeletePolicy policy,
+                                                  Set<String> deleting) {
+        deleting.add("/" + entity + "/" + id);
+        int shard = shardOf(ns, entity, id);
+        return checkIncomingLinks(tx, now(), ns, entity, id, policy, deleting)
+                .andThen(Completable.defer(() -> shards.get(shard).deleteAllDocumentVersions(shardTransaction(tx, shard), ns, entity, id, policy)));
+    }
+
+    @Override
+    public Completable deleteAllEntities(Transaction tx, String namespace, String entity, Specification specification) {
+        return Flowable.range(0, shards.size())
+                .concatMapCompletable(shard -> shards.get(shard).deleteAllEntities(shardTransaction(tx, shard), namespace, entity, specification));
+    }
+
+    @Override
+    public Completable markDocumentDeleted(Transaction tx, String ns, String entityName, String id, ZonedDateTime version, PersistenceDeletePolicy policy) {
+        int shard = shardOf(ns, entityName, id);
+        Set<String> deleting = new HashSet<>();
+        deleting.add("/" + entityName + "/" + id);
+        return checkIncomingLinks(tx, version, ns, entityName, id, policy, deleting)
+                .andThen(Completable.defer(() -> shards.get(shard).markDocumentDeleted(shardTransaction(tx, shard), ns, entityName, id, version, policy)));
+    }
+
+    /**
+     * Reads the documents that link to the target at the snapshot from every shard. With
+     * {@link PersistenceDeletePolicy#FAIL_IF_INCOMING_LINKS} any such document fails the delete, and with
+     * {@link PersistenceDeletePolicy#CASCADE_DELETE_ALL_INCOMING_LINKS_AND_NODES} every one of them is deleted
+     * first, along with the documents that link to them.
+     */
+    private Completable checkIncomingLinks(Transaction tx, ZonedDateTime snapshot, String ns, String entityName, String id,
+                                           PersistenceDeletePolicy policy, Set<String> deleting) {
+        if (policy == PersistenceDeletePolicy.FAIL_IF_INCOMING_LINKS) {
+            return incomingLinks(tx, snapshot, ns, entityName, id)
+                    .filter(source -> !deleting.contains("/" + source.key().entity() + "/" + source.key().id()))
+                    .firstElement()
+                    .flatMapCompletable(source -> Completable.error(new PersistenceException(String.format(
+                            "Cannot delete /%s/%s, it is linked from /%s/%s", entityName, id, source.key().entity(), source.key().id()))));
+        }
+        if (policy == PersistenceDeletePolicy.CASCADE_DELETE_ALL_INCOMING_LINKS_AND_NODES) {
+            return incomingLinks(tx, snapshot, ns, entityName, id)
+                    .map(JsonDocument::key)
+                    .toList()
+                    .flatMapCompletable(sources -> Flowable.fromIterable(sources)
+                            .concatMapCompletable(source -> Completable.defer(() -> deleting.contains("/" + source.entity() + "/" + source.id())
+                                    ? Completable.complete()
+                                    : deleteAllDocumentVersions(tx, ns, source.entity(), source.id(), policy, deleting))));
+        }
+        return Completable.complete();
+    }
+
+    private Flowable<JsonDocument> incomingLinks(Transaction tx, ZonedDateTime snapshot, String ns, String targetEntityName, String targetId) {
+        return Flowable.fromIterable(relations)
+                .filter(relation -> relation.targetEntities.contains(targetEntityName))
+                .concatMap(relation -> readSourceDocuments(tx, snapshot, ns, targetEntityName, targetId, JsonNavigationPath.from(relation.path),
+                        relation.sourceEntity, Range.unbounded()));
+    }
+
+    private static ZonedDateTime now() {
+        return ZonedDateTime.now(ZoneId.of("Etc/UTC"));
+    }
+
+    @Override
+    public Single<Boolean> hasPrevious(Transaction tx, ZonedDateTime snapshot, String ns, String entityName, String id) {
+        return Flowable.range(0, shards.size())
+                .concatMapSingle(shard -> shards.get(shard).hasPrevious(shardTransaction(tx, shard), snapshot, ns, entityName, id))
+                .any(Boolean::booleanValue);
+    }
+
+    @Override
+    public Single<Boolean> hasNext(Transaction tx, ZonedDateTime snapshot, String ns, String entityName, String id) {
+        return Flowable.range(0, shards.size())
+                .concatMapSingle(shard -> shards.get(shard).hasNext(shardTransaction(tx, shard), snapshot, ns, entityName, id))
+                .any(Boolean::booleanValue);
+    }
+
+    @Override
+    public Flowable<JsonDocument> findDocument(Transaction tx, ZonedDateTime snapshot, String namespace, String entityName,
+                                               JsonNavigationPath path, Object value, Range<String> range) {
+        return scatter(range, shard -> shards.get(shard).findDocument(shardTransaction(tx, shard), snapshot, namespace, entityName, path, value, range));
+    }
+
+    @Override
+    public void close() throws PersistenceException {
+        PersistenceException failure = null;
+        for (RxJsonPersistence shard : shards) {
+            try {
+                shard.close();
+            } catch (PersistenceException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static Transaction shardTransaction(Transaction tx, int shard) {
+        if (!(tx instanceof ShardedTransaction)) {
+            throw new IllegalArgumentException("Transaction was not created by ShardedPersistence: " + tx);
+        }
+        return ((ShardedTransaction) tx).shard(shard);
+    }
+
+    /**
+     * Runs the query on every shard, each with the full range, and merges the id-ordered results. Every shard
+     * returns at most the limit of the range, so the limit is applied once more after the merge.
+     */
+    private Flowable<JsonDocument> scatter(Range<String> range, Function<Integer, Flowable<JsonDocument>> query) {
+        Comparator<JsonDocument> byId = Comparator.comparing(document -> document.key().id());
+        Comparator<JsonDocument> order = range.isBackward() ? byId.reversed() : byId;
+        Flowable<JsonDocument> merged = Flowable.defer(() -> new SortedMerge(shardIndexes().stream().map(query).collect(Collectors.toList()), order));
+        return range.isLimited() ? merged.take(range.getLimit()) : merged;
+    }
+
+    private List<Integer> shardIndexes() {
+        List<Integer> indexes = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            indexes.add(i);
+        }
+        return indexes;
+    }
+
+    /**
+     * Selects the ids inside the bounds of the range in the order of the range. The limit is left to the caller.
+     */
+    static List<String> applyRange(NavigableSet<String> ids, Range<String> range) {
+        NavigableSet<String> selected = ids;
+        if (range.hasAfter()) {
+            selected = selected.tailSet(range.getAfter(), false);
+        }
+        if (range.hasBefore()) {
+            selected = selected.headSet(range.getBefore(), false);
+        }
+        if (range.isBackward()) {
+            selected = selected.descendingSet();
+        }
+        return new ArrayList<>(selected);
+    }
+
+    /**
+     * A ref element of the specification: documents of the source entity link to the target entities at the path.
+     */
+    private static class Relation {
+
+        private final String sourceEntity;
+        private final String path;
+        private final Set<String> targetEntities;
+
+        private Relation(String sourceEntity, String path, Set<String> targetEntities) {
+            this.sourceEntity = sourceEntity;
+            this.path = path;
+            this.targetEntities = targetEntities;
+        }
+
+        private static List<Relation> of(Specification specification) {
+            List<Relation> relations = new ArrayList<>();
+            for (String entity : new TreeSet<>(specification.getManagedDomains())) {
+                collect(entity, specification.getRootElement().getProperties().get(entity), "$", relations);
+            }
+            return relations;
+        }
+
+        private static void collect(String sourceEntity, SpecificationElement element, String path, List<Relation> relations) {
+            if (element.getSpecificationElementType() == SpecificationElementType.REF) {
+                boolean array = element.getJsonTypes().contains("array");
+                relations.add(new Relation(sourceEntity, array ? path + "[]" : path, Set.copyOf(element.getRefTypes())));
+                return;
+            }
+            if (element.getProperties() != null) {
+                for (SpecificationElement property : element.getProperties().values()) {
+                    collect(sourceEntity, property, path + "." + property.getName(), relations);
+                }
+            }
+            if (element.getItems() != null) {
+                collect(sourceEntity, element.getItems(), path + "[]", relations);
+            }
+        }
+    }
+
+    /**
+     * Non-blocking k-way merge of sorted shard results. Every shard is asked for one document at a time. A document is
+     * emitted once every shard that has not completed has its next document waiting, so that the first of them in
+     * merge order can be chosen, and the shard it came from is then asked for the next one. Nothing blocks on a
+     * shard: documents are emitted on the thread of the shard that delivered the last one missing, or of the
+     * subscriber that requested more. Ties are resolved in shard order.
+     */
+    private static class SortedMerge extends Flowable<JsonDocument> {
+
+        private final List<Flowable<JsonDocument>> sources;
+        private final Comparator<JsonDocument> order;
+
+        private SortedMerge(List<Flowable<JsonDocument>> sources, Comparator<JsonDocument> order) {
+            this.sources = sources;
+            this.order = order;
+        }
+
+        @Override
+        protected void subscribeActual(Subscriber<? super JsonDocument> subscriber) {
+            Coordinator coordinator = new Coordinator(subscriber, sources.size(), order);
+            subscriber.onSubscribe(coordinator);
+            for (int i = 0; i < sources.size() && !coordinator.cancelled; i++) {
+                sources.get(i).subscribe(coordinator.shards[i]);
+            }
+        }
+
+        /**
+         * Serializes the merge through a work-in-progress counter: whoever brings it from zero drains, everyone else
+         * only increments it, so that the drain loop runs once more.
+         */
+        private static class Coordinator extends AtomicInteger implements Subscription {
+
+            private static final Subscription CANCELLED = new Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            };
+
+            private final Subscriber<? super JsonDocument> downstream;
+            private final Comparator<JsonDocument> order;
+            private final Shard[] shards;
+            private final AtomicLong requested = new AtomicLong();
+            private final AtomicReference<Throwable> error = new AtomicReference<>();
+            private volatile boolean cancelled;
+            private long emitted;
+
+            private Coordinator(Subscriber<? super JsonDocument> downstream, int shardCount, Comparator<JsonDocument> order) {
+                this.downstream = downstream;
+                this.order = order;
+                this.shards = new Shard[shardCount];
+                for (int i = 0; i < shardCount; i++) {
+                    shards[i] = new Shard();
+                }
+            }
+
+            @Override
+            public void request(long n) {
+                if (n <= 0) {
+                    error.compareAndSet(null, new IllegalArgumentException("Request amount must be positive: " + n));
+                } else {
+                    long current;
+                    long updated;
+                    do {
+                        current = requested.get();
+                        updated = current + n < 0 ? Long.MAX_VALUE : current + n;
+                    } while (!requested.compareAndSet(current, updated));
+                }
+                drain();
+            }
+
+            @Override
+            public void cancel() {
+                if (!cancelled) {
+                    cancelled = true;
+                    cancelShards();
+                    if (getAndIncrement() == 0) {
+                        clear();
+                    }
+                }
+            }
+
+            private void cancelShards() {
+                for (Shard shard : shards) {
+                    shard.cancel();
+                }
+            }
+
+            private void clear() {
+                for (Shard shard : shards) {
+                    shard.queue.clear();
+                }
+            }
+
+            private void drain() {
+                if (getAndIncrement() != 0) {
+                    return;
+                }
+                int missed = 1;
+                do {
+                    long demand = requested.get();
+                    for (; ; ) {
+                        if (cancelled) {
+                            clear();
+                            return;
+                        }
+                        Throwable failure = error.get();
+                        if (failure != null) {
+                            cancelled = true;
+                            cancelShards();
+                            clear();
+                            downstream.onError(failure);
+                            return;
+                        }
+                        Shard first = null;
+                        JsonDocument firstDocument = null;
+                        boolean waiting = false;
+                        for (Shard shard : shards) {
+                            // Read done before the queue: a shard queues its last document before it completes.
+                            boolean done = shard.done;
+                            JsonDocument document = shard.queue.peek();
+                            if (document == null) {
+                                if (!done) {
+                                    waiting = true;
+                                    break;
+                                }
+                            } else if (first == null || order.compare(document, firstDocument) < 0) {
+                                first = shard;
+                                firstDocument = document;
+                            }
+                        }
+                        if (waiting) {
+                            break;
+                        }
+                        if (first == null) {
+                            cancelled = true;
+                            downstream.onComplete();
+                            return;
+                        }
+                        if (emitted == demand) {
+                            break;
+                        }
+                        first.queue.poll();
+                        emitted++;
+                        downstream.onNext(firstDocument);
+                        first.requestNext();
+                    }
+                    missed = addAndGet(-missed);
+                } while (missed != 0);
+            }
+
+            private class Shard implements FlowableSubscriber<JsonDocument> {
+
+                private final AtomicReference<Subscription> upstream = new AtomicReference<>();
+                private final Queue<JsonDocument> queue = new ConcurrentLinkedQueue<>();
+                private volatile boolean done;
+
+                @Override
+                public void onSubscribe(Subscription subscription) {
+                    if (upstream.compareAndSet(null, subscription)) {
+                        subscription.request(1);
+                    } else {
+                        subscription.cancel();
+                    }
+                }
+
+                @Override
+                public void onNext(JsonDocument document) {
+                    queue.offer(document);
+                    drain();
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                    error.compareAndSet(null, throwable);
+                    done = true;
+                    drain();
+                }
+
+                @Override
+                public void onComplete() {
+                    done = true;
+                    drain();
+                }
+
+                private void requestNext() {
+                    upstream.get().request(1);
+                }
+
+                private void cancel() {
+                    Subscription subscription = upstream.getAndSet(CANCELLED);
+                    if (subscription != null && subscription != CANCELLED) {
+                        subscription.cancel();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates {@link ShardedTransaction}s. The shards are closed with the {@link ShardedPersistence}, not with the
+     * factory.
+     */
+    public class ShardedTransactionFactory implements TransactionFactory {
+
+        private ShardedTransactionFactory() {
+        }
+
+        @Override
+        public <T> CompletableFuture<T> runAsyncInIsolatedTransaction(Function<? super Transaction, ? extends T> retryable, boolean readOnly) {
+            return CompletableFuture.supplyAsync(() -> {
+                ShardedTransaction tx = createTransaction(readOnly);
+                T result;
+                try {
+                    result = retryable.apply(tx);
+                } catch (RuntimeException | Error e) {
+                    tx.cancel().join();
+                    throw e;
+                }
+                tx.commit().join();
+                return result;
+            });
+        }
+
+        @Override
+        public ShardedTransaction createTransaction(boolean readOnly) throws PersistenceException {
+            return ShardedPersistence.this.createTransaction(readOnly);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Transaction spanning the shards. Shard transactions are created when a shard is first used, and committed or
+     * cancelled together. The statistics reported are those of the first shard that took part, or {@code null} when
+     * no shard did.
+     */
+    public class ShardedTransaction implements Transaction {
+
+        private final boolean readOnly;
+        private final Transaction[] transactions = new Transaction[shards.size()];
+
+        private ShardedTransaction(boolean readOnly) {
+            this.readOnly = readOnly;
+        }
+
+        synchronized Transaction shard(int shard) {
+            if (transactions[shard] == null) {
+                transactions[shard] = shards.get(shard).createTransaction(readOnly);
+            }
+            return transactions[shard];
+        }
+
+        @Override
+        public CompletableFuture<TransactionStatistics> commit() {
+            return complete(Transaction::commit);
+        }
+
+        @Override
+        public CompletableFuture<TransactionStatistics> cancel() {
+            return complete(Transaction::cancel);
+        }
+
+        private synchronized CompletableFuture<TransactionStatistics> complete(Function<Transaction, CompletableFuture<TransactionStatistics>> completion) {
+            List<CompletableFuture<TransactionStatistics>> futures = new ArrayList<>();
+            for (Transaction transaction : transactions) {
+                if (transaction != null) {
+                    futures.add(completion.apply(transaction));
+                }
+            }
+            return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                    .thenApply(v -> futures.isEmpty() ? null : futures.get(0).join());
+        }
+
+        @Override
+        public void close() {
+            commit().join();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package io.descoped.lds.core.persistence.test;
+
+import io.descoped.lds.api.json.JsonNavigationPath;
+import io.descoped.lds.api.persistence.PersistenceDeletePolicy;
+import io.descoped.lds.api.persistence.PersistenceException;
+import io.descoped.lds.api.persistence.Transaction;
+import io.descoped.lds.api.persistence.json.JsonDocument;
+import io.descoped.lds.api.persistence.reactivex.Range;
+import io.descoped.lds.api.persistence.reactivex.RxJsonPersistence;
+import io.reactivex.Flowable;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.lang.String.format;
+import static java.time.ZonedDateTime.parse;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.testng.Assert.assertEquals;
+
+/**
+ * Runs the full {@link PersistenceIntegrationTest} suite against a {@link ShardedPersistence} over several instances
+ * of a provider. Every shard must be an isolated backend, e.g. its own in-process instance or database schema. The
+ * number of shards is set with {@code lds.test.shards}.
+ */
+public abstract class ShardedPersistenceIntegrationTest extends PersistenceIntegrationTest {
+
+    protected ShardedPersistenceIntegrationTest(String namespace) {
+        super(namespace);
+    }
+
+    protected abstract RxJsonPersistence createShard(int shard);
+
+    protected static int shardCount() {
+        return Integer.getInteger("lds.test.shards", 3);
+    }
+
+    @BeforeClass
+    public void createShardedPersistence() {
+        List<RxJsonPersistence> shards = new ArrayList<>();
+        for (int i = 0; i < shardCount(); i++) {
+            shards.add(createShard(i));
+        }
+        persistence = new ShardedPersistence(shards, specification);
+    }
+
+    @AfterClass
+    public void closeShardedPersistence() {
+        if (persistence != null) {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void thatDeletePoliciesSeeLinksFromAllShards() {
+        ShardedPersistence sharded = (ShardedPersistence) persistence;
+        ZonedDateTime timestamp = parse("2019-01-01T00:00:00.000Z");
+        List<JsonDocument> persons = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            persons.add(toDocument(namespace, "Person", format("person%02d", i), createPerson("John", "Smith " + i, "/Address/oslo", "/Address/oslo", List.of()), timestamp));
+        }
+        assertThat(persons).as("linking documents on a shard other than the one of the target")
+                .anyMatch(person -> sharded.shardOf(namespace, "Person", person.key().id()) != sharded.shardOf(namespace, "Address", "oslo"));
+        try (Transaction tx = persistence.createTransaction(false)) {
+            resetNamespace(tx);
+            persistence.createOrOverwrite(tx, toDocument(namespace, "Address", "oslo", createAddress("Oslo", "", "Norway"), timestamp), specification).blockingAwait();
+            persistence.createOrOverwrite(tx, Flowable.fromIterable(persons), specification).blockingAwait();
+        }
+        try (Transaction tx = persistence.createTransaction(false)) {
+            assertThatThrownBy(() -> persistence.markDocumentDeleted(tx, namespace, "Address", "oslo", timestamp.plusDays(1),
+                    PersistenceDeletePolicy.FAIL_IF_INCOMING_LINKS).blockingAwait()).isInstanceOf(PersistenceException.class);
+            assertThatThrownBy(() -> persistence.deleteAllDocumentVersions(tx, namespace, "Address", "oslo",
+                    PersistenceDeletePolicy.FAIL_IF_INCOMING_LINKS).blockingAwait()).isInstanceOf(PersistenceException.class);
+        }
+        try (Transaction tx = persistence.createTransaction(false)) {
+            persistence.deleteAllDocumentVersions(tx, namespace, "Address", "oslo", PersistenceDeletePolicy.CASCADE_DELETE_ALL_INCOMING_LINKS_AND_NODES).blockingAwait();
+        }
+        try (Transaction tx = persistence.createTransaction(true)) {
+            assertEquals(persistence.readDocuments(tx, timestamp, namespace, "Person", Range.unbounded()).count().blockingGet(), Long.valueOf(0));
+            assertEquals(persistence.readDocuments(tx, timestamp, namespace, "Address", Range.unbounded()).count().blockingGet(), Long.valueOf(0));
+        }
+    }
+
+    @Test
+    public void thatReadLinkedDocumentsLimitCountsExistingTargetsOnly() {
+        ZonedDateTime timestamp = parse("2019-01-01T00:00:00.000Z");
+        try (Transaction tx = persistence.createTransaction(false)) {
+            resetNamespace(tx);
+            persistence.createOrOverwrite(tx, Flowable.just(
+                    toDocument(namespace, "Address", "b", createAddress("B", "", "Norway"), timestamp),
+                    toDocument(namespace, "Address", "d", createAddress("D", "", "Norway"), timestamp),
+                    toDocument(namespace, "Address", "e", createAddress("E", "", "Norway"), timestamp),
+                    // a and c are never written.
+                    toDocument(namespace, "Person", "jack", createPerson("Jack", "Smith", "/Address/b", "/Address/b",
+                            List.of("/Address/a", "/Address/b", "/Address/c", "/Address/d", "/Address/e")), timestamp)
+            ), specification).blockingAwait();
+        }
+        try (Transaction tx = persistence.createTransaction(true)) {
+            assertEquals(persistence.readLinkedDocuments(tx, timestamp, namespace, "Person", "jack", JsonNavigationPath.from("$.history.previousAddresses[]"),
+                    "Address", Range.first(2)).map(document -> document.key().id()).toList().blockingGet(), List.of("b", "d"));
+        }
+        try (Transaction tx = persistence.createTransaction(false)) {
+            resetNamespace(tx);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package io.descoped.lds.core.persistence.test;
+
+import io.descoped.lds.api.persistence.json.JsonDocument;
+
+import java.time.ZonedDateTime;
+
+/**
+ * A document version in effect at one of the snapshots read by {@link BatchSnapshotPersistence}.
+ */
+public class SnapshotDocument {
+
+    private final ZonedDateTime snapshot;
+    private final JsonDocument document;
+
+    public SnapshotDocument(ZonedDateTime snapshot, JsonDocument document) {
+        this.snapshot = snapshot;
+        this.document = document;
+    }
+
+    public ZonedDateTime snapshot() {
+        return snapshot;
+    }
+
+    public JsonDocument document() {
+        return document;
+    }
+
+    @Override
+    public String toString() {
+        return "SnapshotDocument{" +
+                "snapshot=" + snapshot +
+                ", document=" + document +
+                '}';
+    }
+}
@@ -0,0 +1,191 @@
+package io.descoped.lds.core.persistence.test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.descoped.lds.api.specification.Specification;
+import io.descoped.lds.api.specification.SpecificationElement;
+import io.descoped.lds.api.specification.SpecificationElementType;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.TreeSet;
+
+import static io.descoped.lds.api.persistence.json.JsonTools.mapper;
+import static io.descoped.lds.core.persistence.test.SpecificationBuilder.arrayNode;
+import static io.descoped.lds.core.persistence.test.SpecificationBuilder.arrayRefNode;
+import static io.descoped.lds.core.persistence.test.SpecificationBuilder.booleanNode;
+import static io.descoped.lds.core.persistence.test.SpecificationBuilder.numericNode;
+import static io.descoped.lds.core.persistence.test.SpecificationBuilder.objectNode;
+import static io.descoped.lds.core.persistence.test.SpecificationBuilder.refNode;
+import static io.descoped.lds.core.persistence.test.SpecificationBuilder.stringNode;
+
+/**
+ * Generates wide and deep specifications, and documents that match them, for schema-scale tests and benchmarks.
+ * <p>
+ * Managed domains are named {@code Entity0000}, {@code Entity0001} and so on, and properties {@code p0},
+ * {@code p1} and so on. Every managed domain has a chain of embedded objects {@link #depth(int) depth} levels deep.
+ * Refs and array refs point to ids in the range given by {@link #idsPerEntity(int)}, so loading that many documents
+ * of every entity gives a graph without dangling links. Output depends only on the seed and the settings.
+ */
+public class SpecificationGenerator {
+
+    private final long seed;
+    private int managedDomains = 10;
+    private int depth = 3;
+    private int propertiesPerObject = 4;
+    private double refRatio = 0.25;
+    private int arrayLength = 3;
+    private int idsPerEntity = 10;
+
+    public SpecificationGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    public SpecificationGenerator managedDomains(int managedDomains) {
+        this.managedDomains = managedDomains;
+        return this;
+    }
+
+    /**
+     * Levels of object nesting in every managed domain, counting the domain itself.
+     */
+    public SpecificationGenerator depth(int depth) {
+        this.depth = depth;
+        return this;
+    }
+
+    public SpecificationGenerator propertiesPerObject(int propertiesPerObject) {
+        this.propertiesPerObject = propertiesPerObject;
+        return this;
+    }
+
+    /**
+     * Share of leaf properties that are refs. Half of them are array refs.
+     */
+    public SpecificationGenerator refRatio(double refRatio) {
+        this.refRatio = refRatio;
+        return this;
+    }
+
+    public SpecificationGenerator arrayLength(int arrayLength) {
+        this.arrayLength = arrayLength;
+        return this;
+    }
+
+    public SpecificationGenerator idsPerEntity(int idsPerEntity) {
+        this.idsPerEntity = idsPerEntity;
+        return this;
+    }
+
+    public static String entityName(int index) {
+        return String.format("Entity%04d", index);
+    }
+
+    public static String id(int index) {
+        return String.format("id%06d", index);
+    }
+
+    public Specification generateSpecification() {
+        SplittableRandom random = new SplittableRandom(seed);
+        Set<TestSpecificationElement> domains = new LinkedHashSet<>();
+        for (int i = 0; i < managedDomains; i++) {
+            domains.add(objectNode(SpecificationElementType.MANAGED, entityName(i), properties(random, 1)));
+        }
+        return SpecificationBuilder.createSpecificationAndRoot(domains);
+    }
+
+    private Set<TestSpecificationElement> properties(SplittableRandom random, int level) {
+        Set<TestSpecificationElement> properties = new LinkedHashSet<>();
+        for (int i = 0; i < propertiesPerObject; i++) {
+            String name = "p" + i;
+            if (level < depth && i == 0) {
+                properties.add(objectNode(name, properties(random, level + 1)));
+            } else if (random.nextDouble() < refRatio) {
+                Set<String> refTypes = refTypes(random);
+                properties.add(random.nextBoolean() ? refNode(name, refTypes) : arrayRefNode(name, refTypes, stringNode("[]")));
+            } else {
+                switch (random.nextInt(4)) {
+                    case 0:
+                        properties.add(numericNode(name));
+                        break;
+                    case 1:
+                        properties.add(booleanNode(name));
+                        break;
+                    case 2:
+                        properties.add(arrayNode(name, stringNode("[]")));
+                        break;
+                    default:
+                        properties.add(stringNode(name));
+                }
+            }
+        }
+        return properties;
+    }
+
+    private Set<String> refTypes(SplittableRandom random) {
+        Set<String> refTypes = new TreeSet<>();
+        int count = 1 + random.nextInt(Math.min(2, managedDomains));
+        while (refTypes.size() < count) {
+            refTypes.add(entityName(random.nextInt(managedDomains)));
+        }
+        return refTypes;
+    }
+
+    /**
+     * A document of the managed domain that matches the specification. Documents of the same entity and index
+     * are equal.
+     */
+    public ObjectNode generateDocument(Specification specification, String entityName, int index) {
+        SpecificationElement element = specification.getRootElement().getProperties().get(entityName);
+        if (element == null) {
+            throw new IllegalArgumentException("Entity is not managed by the specification: " + entityName);
+        }
+        SplittableRandom random = new SplittableRandom(Objects.hash(seed, entityName, index));
+        return (ObjectNode) value(element, random);
+    }
+
+    private JsonNode value(SpecificationElement element, SplittableRandom random) {
+        if (element.getSpecificationElementType() == SpecificationElementType.REF) {
+            List<String> refTypes = new ArrayList<>(new TreeSet<>(element.getRefTypes()));
+            if (element.getJsonTypes().contains("array")) {
+                ArrayNode links = mapper.createArrayNode();
+                for (int i = 0; i < arrayLength; i++) {
+                    links.add(link(refTypes, random));
+                }
+                return links;
+            }
+            return mapper.getNodeFactory().textNode(link(refTypes, random));
+        }
+        Set<String> jsonTypes = element.getJsonTypes();
+        if (jsonTypes.contains("object")) {
+            ObjectNode object = mapper.createObjectNode();
+            for (SpecificationElement property : element.getProperties().values()) {
+                object.set(property.getName(), value(property, random));
+            }
+            return object;
+        }
+        if (jsonTypes.contains("array")) {
+            ArrayNode array = mapper.createArrayNode();
+            for (int i = 0; i < arrayLength; i++) {
+                array.add(value(element.getItems(), random));
+            }
+            return array;
+        }
+        if (jsonTypes.contains("number")) {
+            return mapper.getNodeFactory().numberNode(random.nextInt(1000000));
+        }
+        if (jsonTypes.contains("boolean")) {
+            return mapper.getNodeFactory().booleanNode(random.nextBoolean());
+        }
+        return mapper.getNodeFactory().textNode("value" + random.nextInt(1000000));
+    }
+
+    private String link(List<String> refTypes, SplittableRandom random) {
+        return "/" + refTypes.get(random.nextInt(refTypes.size())) + "/" + id(random.nextInt(idsPerEntity));
+    }
+}
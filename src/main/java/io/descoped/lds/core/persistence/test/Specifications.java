@@ -0,0 +1,33 @@
+package io.descoped.lds.core.persistence.test;
+
+import io.descoped.lds.api.json.JsonNavigationPath;
+import io.descoped.lds.api.specification.Specification;
+import io.descoped.lds.api.specification.SpecificationElement;
+
+/**
+ * Lookups in a {@link Specification} tree.
+ */
+public final class Specifications {
+
+    private Specifications() {
+    }
+
+    /**
+     * The element of the managed entity at the given path, or {@code null} if the entity has no such element. Array
+     * path elements ({@code name[]}) resolve to the array element itself, which is where ref types of
+     * {@code arrayRefNode}s are declared.
+     */
+    public static SpecificationElement element(Specification specification, String entityName, JsonNavigationPath path) {
+        SpecificationElement element = specification.getRootElement().getProperties().get(entityName);
+        if (element == null) {
+            return null;
+        }
+        for (String pathElement : JsonNavigation.elements(path)) {
+            String name = JsonNavigation.name(pathElement);
+            if (element.getProperties() == null || (element = element.getProperties().get(name)) == null) {
+                return null;
+            }
+        }
+        return element;
+    }
+}
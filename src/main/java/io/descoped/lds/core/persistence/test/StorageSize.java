@@ -0,0 +1,35 @@
+package io.descoped.lds.core.persistence.test;
+
+/**
+ * Bytes used by the document versions of a namespace in each storage tier of a {@link TieredPersistence}.
+ */
+public class StorageSize {
+
+    private final long hotBytes;
+    private final long coldBytes;
+
+    public StorageSize(long hotBytes, long coldBytes) {
+        this.hotBytes = hotBytes;
+        this.coldBytes = coldBytes;
+    }
+
+    public long hotBytes() {
+        return hotBytes;
+    }
+
+    public long coldBytes() {
+        return coldBytes;
+    }
+
+    public long totalBytes() {
+        return hotBytes + coldBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "StorageSize{" +
+                "hotBytes=" + hotBytes +
+                ", coldBytes=" + coldBytes +
+                '}';
+    }
+}
@@ -0,0 +1,27 @@
+package io.descoped.lds.core.persistence.test;
+
+import io.descoped.lds.api.persistence.Transaction;
+import io.reactivex.Single;
+
+import java.time.ZonedDateTime;
+
+/**
+ * Optional provider capability for keeping old document versions in a cold storage tier, e.g. compressed segment
+ * files, while the versions that recent reads hit stay in primary storage.
+ * <p>
+ * Tiering is invisible to the {@code RxJsonPersistence} operations: historical {@code readDocument},
+ * {@code readDocumentVersions} and the delete operations work on cold versions exactly as on hot ones, and a version
+ * written with an old timestamp after tiering is read like any other version.
+ */
+public interface TieredPersistence {
+
+    /**
+     * Moves every version of the namespace that was superseded by a newer version or delete marker at or before the
+     * threshold to the cold tier. Versions in effect at or after the threshold stay hot.
+     *
+     * @return the number of versions moved
+     */
+    Single<Long> tierVersionsBefore(Transaction tx, String namespace, ZonedDateTime threshold);
+
+    Single<StorageSize> storageSize(Transaction tx, String namespace);
+}
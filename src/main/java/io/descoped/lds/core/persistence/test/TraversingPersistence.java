@@ -0,0 +1,26 @@
+package io.descoped.lds.core.persistence.test;
+
+import io.descoped.lds.api.json.JsonNavigationPath;
+import io.descoped.lds.api.persistence.Transaction;
+import io.descoped.lds.api.persistence.json.JsonDocument;
+import io.descoped.lds.api.specification.Specification;
+import io.reactivex.Flowable;
+
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Optional provider capability for following chains of links from many source documents in a single call, instead
+ * of one {@code readLinkedDocuments} call per hop, source document and target entity. {@link LinkTraversal} is the
+ * reference semantics.
+ */
+public interface TraversingPersistence {
+
+    /**
+     * The distinct documents reached from the source documents by following each ref path of {@code hops} in turn,
+     * in no particular order. A hop applies to every document reached by the previous hop whose entity declares the
+     * ref path in the specification, and follows links to all ref types of that path.
+     */
+    Flowable<JsonDocument> traverseLinks(Transaction tx, ZonedDateTime snapshot, String namespace, String entityName, Set<String> ids, List<JsonNavigationPath> hops, Specification specification);
+}
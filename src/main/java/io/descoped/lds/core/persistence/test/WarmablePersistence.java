@@ -0,0 +1,14 @@
+package io.descoped.lds.core.persistence.test;
+
+import io.descoped.lds.api.specification.Specification;
+import io.reactivex.Completable;
+
+/**
+ * Optional provider capability for bringing a newly started provider to steady-state latency before it serves
+ * requests, e.g. by priming pooled connections and preparing statements. Warming up must not change any data and
+ * may be called more than once.
+ */
+public interface WarmablePersistence {
+
+    Completable warmup(String namespace, Specification specification);
+}
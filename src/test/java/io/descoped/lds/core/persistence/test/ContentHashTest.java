@@ -0,0 +1,32 @@
+package io.descoped.lds.core.persistence.test;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static io.descoped.lds.api.persistence.json.JsonTools.mapper;
+import static io.descoped.lds.core.persistence.test.PersistenceIntegrationTest.createPerson;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+
+public class ContentHashTest {
+
+    @Test
+    public void thatContentHashIgnoresPropertyOrder() {
+        ObjectNode person = createPerson("John", "Smith", "/Address/oslo", "/Address/oslo", List.of("/Address/london", "/Address/paris"));
+        ObjectNode reordered = mapper.createObjectNode();
+        List<String> names = new ArrayList<>();
+        person.fieldNames().forEachRemaining(names::add);
+        Collections.reverse(names);
+        names.forEach(name -> reordered.set(name, person.get(name)));
+        assertEquals(ContentHash.hex(reordered), ContentHash.hex(person));
+        assertEquals(ContentHash.hex(person).length(), 64);
+
+        ObjectNode changed = person.deepCopy();
+        ((ObjectNode) changed.get("history")).putArray("previousAddresses").add("/Address/paris").add("/Address/london");
+        assertFalse(ContentHash.hex(changed).equals(ContentHash.hex(person)), "array order must be significant");
+    }
+}
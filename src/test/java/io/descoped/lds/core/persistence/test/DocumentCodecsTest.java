@@ -0,0 +1,24 @@
+package io.descoped.lds.core.persistence.test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.testng.annotations.Test;
+
+import java.util.Map;
+
+import static java.lang.String.format;
+import static org.testng.Assert.assertEquals;
+
+public class DocumentCodecsTest {
+
+    @Test
+    public void thatDocumentCodecsRoundTripFixtures() {
+        Map<String, JsonNode> fixtures = PersistenceIntegrationTest.codecFixtures();
+        for (DocumentCodec codec : DocumentCodecs.all()) {
+            for (Map.Entry<String, JsonNode> fixture : fixtures.entrySet()) {
+                JsonNode decoded = codec.decode(codec.encode(fixture.getValue()));
+                assertEquals(decoded, fixture.getValue(), format("%s round-trip of %s", codec.name(), fixture.getKey()));
+                assertEquals(decoded.toString(), fixture.getValue().toString(), format("%s field order of %s", codec.name(), fixture.getKey()));
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package io.descoped.lds.core.persistence.test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.descoped.lds.api.persistence.DocumentKey;
+import io.descoped.lds.api.persistence.json.JsonDocument;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static io.descoped.lds.core.persistence.test.PersistenceIntegrationTest.createAddress;
+import static java.lang.String.format;
+import static java.time.ZonedDateTime.parse;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+public class NamespaceArchiveTest {
+
+    private static final String NAMESPACE = "data";
+
+    @Test
+    public void thatCorruptArchiveChunkFailsRead() throws IOException {
+        ZonedDateTime timestamp = parse("2019-01-01T00:00:00.000Z");
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        NamespaceArchive.writeHeader(archive);
+        NamespaceArchive.writeChunk(archive, List.of(
+                toDocument(NAMESPACE, "Address", "oslo", createAddress("Oslo", "", "Norway"), timestamp),
+                toDocument(NAMESPACE, "Address", "london", createAddress("London", "", "England"), timestamp)));
+        byte[] bytes = archive.toByteArray();
+        assertEquals(NamespaceArchive.readChunks(new ByteArrayInputStream(bytes), NAMESPACE).toList().blockingGet().get(0).size(), 2);
+
+        bytes[bytes.length - 1] ^= 0x01;
+        NamespaceArchive.readChunks(new ByteArrayInputStream(bytes), NAMESPACE).test().assertError(IOException.class);
+    }
+
+    @Test
+    public void thatSplitArchiveReadersReadEveryChunkOnce() throws IOException {
+        ZonedDateTime timestamp = parse("2019-01-01T00:00:00.000Z");
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        NamespaceArchive.writeHeader(archive);
+        List<Integer> chunkOffsets = new ArrayList<>();
+        for (int chunk = 0; chunk < 3; chunk++) {
+            chunkOffsets.add(archive.size());
+            List<JsonDocument> documents = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                documents.add(toDocument(NAMESPACE, "Address", format("address%d_%d", chunk, i), createAddress("City " + i, "", "Norway"), timestamp));
+            }
+            // A delete marker, which has no content.
+            documents.add(new JsonDocument(new DocumentKey(NAMESPACE, "Address", format("address%d_0", chunk), timestamp.plusDays(1)), null));
+            NamespaceArchive.writeChunk(archive, documents);
+        }
+        byte[] bytes = archive.toByteArray();
+
+        List<List<JsonDocument>> all = NamespaceArchive.readChunks(new ByteArrayInputStream(bytes), NAMESPACE).toList().blockingGet();
+        assertEquals(all.size(), 3);
+        assertNull(all.get(2).get(10).jackson());
+        assertEquals(all.get(2).get(10).key(), new DocumentKey(NAMESPACE, "Address", "address2_0", timestamp.plusDays(1)));
+
+        // A reader starting inside the first chunk skips to the start of the second one.
+        int offset = chunkOffsets.get(0) + 5;
+        List<List<JsonDocument>> tail = NamespaceArchive.readChunks(new ByteArrayInputStream(bytes, offset, bytes.length - offset), NAMESPACE,
+                bytes.length - offset).toList().blockingGet();
+        assertEquals(tail.size(), 2);
+        assertEquals(tail.get(0).get(0).key().id(), "address1_0");
+        assertEquals(tail.get(1).get(0).jackson().toString(), all.get(2).get(0).jackson().toString());
+
+        // Two readers over [0, mid) and [mid, length) read every chunk exactly once, wherever the archive is split.
+        List<String> expected = all.stream().map(chunk -> chunk.get(0).key().id()).collect(Collectors.toList());
+        for (int mid = 0; mid <= bytes.length; mid++) {
+            List<String> actual = new ArrayList<>();
+            NamespaceArchive.readChunks(new ByteArrayInputStream(bytes, 0, bytes.length), NAMESPACE, mid)
+                    .blockingForEach(chunk -> actual.add(chunk.get(0).key().id()));
+            NamespaceArchive.readChunks(new ByteArrayInputStream(bytes, mid, bytes.length - mid), NAMESPACE, bytes.length - mid)
+                    .blockingForEach(chunk -> actual.add(chunk.get(0).key().id()));
+            assertEquals(actual, expected, "archive of " + bytes.length + " bytes split at " + mid);
+        }
+    }
+
+    private static JsonDocument toDocument(String namespace, String entity, String id, JsonNode json, ZonedDateTime timestamp) {
+        return new JsonDocument(new DocumentKey(namespace, entity, id, timestamp), json);
+    }
+}
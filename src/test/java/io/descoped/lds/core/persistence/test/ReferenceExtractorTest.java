@@ -0,0 +1,90 @@
+package io.descoped.lds.core.persistence.test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.descoped.lds.api.persistence.json.JsonTools;
+import io.descoped.lds.api.specification.Specification;
+import io.descoped.lds.api.specification.SpecificationElementType;
+import org.testng.annotations.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static io.descoped.lds.api.persistence.json.JsonTools.mapper;
+import static io.descoped.lds.core.persistence.test.PersistenceIntegrationTest.createAddress;
+import static io.descoped.lds.core.persistence.test.PersistenceIntegrationTest.createComplexArrayPeople;
+import static io.descoped.lds.core.persistence.test.PersistenceIntegrationTest.createPerson;
+import static io.descoped.lds.core.persistence.test.PersistenceIntegrationTest.defaultSpecification;
+import static io.descoped.lds.core.persistence.test.PersistenceIntegrationTest.departmentSpecification;
+import static io.descoped.lds.core.persistence.test.SpecificationBuilder.arrayNode;
+import static io.descoped.lds.core.persistence.test.SpecificationBuilder.objectNode;
+import static io.descoped.lds.core.persistence.test.SpecificationBuilder.refNode;
+import static io.descoped.lds.core.persistence.test.SpecificationBuilder.stringNode;
+import static org.testng.Assert.assertEquals;
+
+public class ReferenceExtractorTest {
+
+    @Test
+    public void thatReferenceExtractorFindsAllRefsOfFixtures() {
+        ReferenceExtractor extractor = new ReferenceExtractor(defaultSpecification());
+        ObjectNode jack = createPerson("Jack", "Smith", "/Address/oslo", "/Address/oslo", List.of("/Address/london", "/Address/paris"));
+        ObjectNode jill = createPerson("Jill", "Smith", "/Address/oslo", "/FunkyLongAddress/trondheim", List.of("/Address/london", "/FunkyLongAddress/trondheim"));
+        assertEquals(extractReferences(extractor, "Person", jack), List.of(
+                "$.history.currentAddress -> /Address/oslo",
+                "$.history.workAddress -> /Address/oslo",
+                "$.history.previousAddresses[] -> /Address/london",
+                "$.history.previousAddresses[] -> /Address/paris"
+        ));
+        assertEquals(extractReferences(extractor, "Person", jill), List.of(
+                "$.history.currentAddress -> /Address/oslo",
+                "$.history.workAddress -> /FunkyLongAddress/trondheim",
+                "$.history.previousAddresses[] -> /Address/london",
+                "$.history.previousAddresses[] -> /FunkyLongAddress/trondheim"
+        ));
+        assertEquals(extractReferences(extractor, "Address", createAddress("Oslo", "", "Norway")), List.of());
+
+        // Raw JSON gives the same result as the tree.
+        List<String> fromBytes = new ArrayList<>();
+        extractor.extract("Person", JsonTools.toJson(jill).getBytes(StandardCharsets.UTF_8),
+                (path, targetEntity, targetId) -> fromBytes.add(path + " -> /" + targetEntity + "/" + targetId));
+        assertEquals(fromBytes, extractReferences(extractor, "Person", jill));
+
+        ObjectNode department = mapper.createObjectNode().put("name", "Sales").put("head", "/Person/jack");
+        assertEquals(extractReferences(new ReferenceExtractor(departmentSpecification()), "Department", department),
+                List.of("$.head -> /Person/jack"));
+    }
+
+    @Test
+    public void thatReferenceExtractorSkipsValuesOutsideRefElements() {
+        ReferenceExtractor extractor = new ReferenceExtractor(defaultSpecification());
+        ObjectNode person = createPerson("/Address/firstname", "Smith");
+        person.putObject("unknown").put("currentAddress", "/Address/unknown").putArray("items").add("/Address/unknown");
+        ObjectNode history = person.putObject("history")
+                .put("currentAddress", "/Department/sales")
+                .put("workAddress", "Address/malformed");
+        history.putArray("previousAddresses").add("/Address/").add(42).addNull().add("/FunkyLongAddress/bergen").addObject().put("ref", "/Address/nested");
+        assertEquals(extractReferences(extractor, "Person", person), List.of("$.history.previousAddresses[] -> /FunkyLongAddress/bergen"));
+
+        Specification embeddedRefs = SpecificationBuilder.createSpecificationAndRoot(Set.of(
+                objectNode(SpecificationElementType.MANAGED, "People", Set.of(
+                        arrayNode("name", objectNode(SpecificationElementType.EMBEDDED, "[]", Set.of(
+                                stringNode("first"),
+                                refNode("home", Set.of("Address"))
+                        )))
+                ))
+        ));
+        ObjectNode people = createComplexArrayPeople();
+        ((ObjectNode) people.get("name").get(0)).put("home", "/Address/oslo");
+        ((ObjectNode) people.get("name").get(1)).put("home", "/Address/paris");
+        assertEquals(extractReferences(new ReferenceExtractor(embeddedRefs), "People", people),
+                List.of("$.name[].home -> /Address/oslo", "$.name[].home -> /Address/paris"));
+    }
+
+    private static List<String> extractReferences(ReferenceExtractor extractor, String entity, JsonNode document) {
+        List<String> references = new ArrayList<>();
+        extractor.extract(entity, document, (path, targetEntity, targetId) -> references.add(path + " -> /" + targetEntity + "/" + targetId));
+        return references;
+    }
+}